@@ -0,0 +1,627 @@
+package editortrees;
+
+import java.util.Arrays;
+
+// The same height-balanced tree with rank as EditTree, doing the same
+// rotations and ending up in the same shapes, but with its nodes kept in
+// parallel primitive arrays instead of one Node object each. A node is an int
+// handle into the arrays, so walking the tree reads dense arrays rather than
+// chasing references, and adding a node allocates nothing unless the arrays
+// have to grow. Handle 0 is the null node; like EditTree.NULL_NODE, its
+// parent slot may be written but is never read.
+//
+// Nodes cannot move from one tree's arrays to another's without being
+// copied, so this offers the single-character operations but not split()
+// and concatenate(), which in EditTree relink whole subtrees in O(log N).
+
+public class ArenaEditTree {
+
+	private static final int NULL = 0;
+
+	private static final byte SAME = 0;
+	private static final byte LEFT = 1;
+	private static final byte RIGHT = 2;
+
+	private char[] element;
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private int[] rank;
+	private byte[] balance;
+
+	private int root = NULL;
+	private int size = 0;
+	private int rotationCount = 0;
+	// The rightmost node, as in EditTree; NULL when it is not known.
+	private int last = NULL;
+	// Handles never used yet start here; deleted nodes are chained through
+	// their left slots from free.
+	private int unused = 1;
+	private int free = NULL;
+
+	/**
+	 * Construct an empty tree
+	 */
+	public ArenaEditTree() {
+		allocate(16);
+	}
+
+	/**
+	 * Construct a single-node tree whose element is c
+	 *
+	 * @param c
+	 */
+	public ArenaEditTree(char c) {
+		this();
+		add(c);
+	}
+
+	/**
+	 * Create a tree whose toString is s in O(N) time. It has the same shape
+	 * as EditTree(s), and its nodes are laid out in inorder, so that reading
+	 * the text in order walks the arrays from front to back.
+	 *
+	 * @param s
+	 */
+	public ArenaEditTree(String s) {
+		allocate(s.length() + 1);
+		this.root = build(s, 0, s.length(), NULL);
+		this.size = s.length();
+		this.unused = s.length() + 1;
+	}
+
+	private void allocate(int capacity) {
+		this.element = new char[capacity];
+		this.left = new int[capacity];
+		this.right = new int[capacity];
+		this.parent = new int[capacity];
+		this.rank = new int[capacity];
+		this.balance = new byte[capacity];
+	}
+
+	/**
+	 * Same as EditTree.build(), except that the node for s.charAt(i) gets
+	 * handle i + 1.
+	 */
+	private int build(String s, int start, int end, int parentNode) {
+		if (start == end) {
+			return NULL;
+		}
+		int mid = start + (end - start) / 2;
+		int node = mid + 1;
+		this.element[node] = s.charAt(mid);
+		this.parent[node] = parentNode;
+		this.left[node] = build(s, start, mid, node);
+		this.right[node] = build(s, mid + 1, end, node);
+		this.rank[node] = mid - start;
+		this.balance[node] = (balancedHeight(mid - start) > balancedHeight(end - mid - 1)) ? LEFT : SAME;
+		return node;
+	}
+
+	private static int balancedHeight(int nodes) {
+		return 31 - Integer.numberOfLeadingZeros(nodes);
+	}
+
+	/**
+	 * @return a handle to a new childless node, taken from the free list if
+	 *         possible
+	 */
+	private int newNode(char c, int parentNode) {
+		int node;
+		if (this.free != NULL) {
+			node = this.free;
+			this.free = this.left[node];
+		} else {
+			if (this.unused == this.element.length) {
+				int capacity = 2 * this.element.length;
+				this.element = Arrays.copyOf(this.element, capacity);
+				this.left = Arrays.copyOf(this.left, capacity);
+				this.right = Arrays.copyOf(this.right, capacity);
+				this.parent = Arrays.copyOf(this.parent, capacity);
+				this.rank = Arrays.copyOf(this.rank, capacity);
+				this.balance = Arrays.copyOf(this.balance, capacity);
+			}
+			node = this.unused++;
+		}
+		this.element[node] = c;
+		this.left[node] = NULL;
+		this.right[node] = NULL;
+		this.parent[node] = parentNode;
+		this.rank[node] = 0;
+		this.balance[node] = SAME;
+		return node;
+	}
+
+	private void freeNode(int node) {
+		this.left[node] = this.free;
+		this.free = node;
+	}
+
+	/**
+	 *
+	 * @return the number of nodes in this tree
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 *
+	 * @return the height of this tree, found by following the balance codes
+	 *         down as Node.height() does
+	 */
+	public int height() {
+		int height = -1;
+		for (int current = this.root; current != NULL; height++) {
+			current = (this.balance[current] == LEFT) ? this.left[current] : this.right[current];
+		}
+		return height;
+	}
+
+	/**
+	 *
+	 * @return number of rotations since tree was created, counted as in
+	 *         EditTree
+	 */
+	public int totalRotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 *
+	 * @param pos
+	 *            position in the tree
+	 * @return the character at that position
+	 * @throws IndexOutOfBoundsException
+	 */
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.element[find(pos)];
+	}
+
+	/**
+	 * Descends to pos once and then steps to inorder successors, in
+	 * O(length + log N) time.
+	 *
+	 * @param pos
+	 *            location of the beginning of the string to retrieve
+	 * @param length
+	 *            length of the string to retrieve
+	 * @return string of length that starts in position pos
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length-1 are legitimate indexes
+	 *             within this tree.
+	 */
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || length > this.size - pos) {
+			throw new IndexOutOfBoundsException();
+		}
+		char[] result = new char[length];
+		int current = (length == 0) ? NULL : find(pos);
+		for (int i = 0; i < length; i++) {
+			result[i] = this.element[current];
+			current = successor(current);
+		}
+		return new String(result);
+	}
+
+	/**
+	 * return the string produced by an inorder traversal of this tree
+	 */
+	@Override
+	public String toString() {
+		return get(0, this.size);
+	}
+
+	/**
+	 * @return the elements, ranks and balance codes in a pre-order traversal,
+	 *         in the same format as EditTree.toDebugString()
+	 */
+	public String toDebugString() {
+		if (this.root == NULL) {
+			return "[]";
+		}
+		StringBuilder result = new StringBuilder("[");
+		int[] stack = new int[height() + 2];
+		int top = 0;
+		stack[top++] = this.root;
+		while (top > 0) {
+			int node = stack[--top];
+			if (result.length() > 1) {
+				result.append(", ");
+			}
+			result.append(this.element[node]);
+			result.append(this.rank[node]);
+			result.append((this.balance[node] == SAME) ? '=' : (this.balance[node] == LEFT) ? '/' : '\\');
+			if (this.right[node] != NULL) {
+				stack[top++] = this.right[node];
+			}
+			if (this.left[node] != NULL) {
+				stack[top++] = this.left[node];
+			}
+		}
+		return result.append(']').toString();
+	}
+
+	/**
+	 * Checks every node from scratch, like EditTree.isBalanced(), in O(N)
+	 * time.
+	 *
+	 * @return true if this is a correctly annotated height-balanced tree
+	 */
+	public boolean isBalanced() {
+		return checkSubtree(this.root, NULL, new int[1]) >= 0;
+	}
+
+	private int checkSubtree(int node, int parentNode, int[] height) {
+		if (node == NULL) {
+			height[0] = -1;
+			return 0;
+		}
+		if (this.parent[node] != parentNode) {
+			return -1;
+		}
+		int leftSize = checkSubtree(this.left[node], node, height);
+		int leftHeight = height[0];
+		int rightSize = checkSubtree(this.right[node], node, height);
+		int rightHeight = height[0];
+		if (leftSize < 0 || rightSize < 0 || this.rank[node] != leftSize) {
+			return -1;
+		}
+		byte expected = (leftHeight == rightHeight) ? SAME : (leftHeight > rightHeight) ? LEFT : RIGHT;
+		if (Math.abs(leftHeight - rightHeight) > 1 || this.balance[node] != expected) {
+			return -1;
+		}
+		height[0] = Math.max(leftHeight, rightHeight) + 1;
+		return leftSize + rightSize + 1;
+	}
+
+	/**
+	 *
+	 * @param c
+	 *            character to add to the end of this tree.
+	 */
+	public void add(char c) {
+		this.size++;
+		if (this.root == NULL) {
+			this.root = newNode(c, NULL);
+			this.last = this.root;
+			return;
+		}
+		// As in EditTree, a new rightmost node hangs off the old one and
+		// changes no ranks.
+		int previous = lastNode();
+		int node = newNode(c, previous);
+		this.right[previous] = node;
+		this.last = node;
+		balance(node);
+	}
+
+	private int lastNode() {
+		if (this.last == NULL) {
+			int current = this.root;
+			while (this.right[current] != NULL) {
+				current = this.right[current];
+			}
+			this.last = current;
+		}
+		return this.last;
+	}
+
+	/**
+	 *
+	 * @param c
+	 *            character to add
+	 * @param pos
+	 *            character added in this inorder position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	public void add(char c, int pos) throws IndexOutOfBoundsException {
+		if (pos > this.size || pos < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (pos == this.size) {
+			add(c);
+			return;
+		}
+		this.size++;
+		int current = this.root;
+		while (true) {
+			if (pos <= this.rank[current]) {
+				this.rank[current]++;
+				if (this.left[current] == NULL) {
+					int node = newNode(c, current);
+					this.left[current] = node;
+					balance(node);
+					return;
+				}
+				current = this.left[current];
+			} else {
+				pos -= this.rank[current] + 1;
+				if (this.right[current] == NULL) {
+					int node = newNode(c, current);
+					this.right[current] = node;
+					balance(node);
+					return;
+				}
+				current = this.right[current];
+			}
+		}
+	}
+
+	/**
+	 * Deletes like EditTree.delete(int), replacing a node that has two
+	 * children with its successor. The handle of the node that leaves the
+	 * tree is reused by a later add.
+	 *
+	 * @param pos
+	 *            position of character to delete from this tree
+	 * @return the character that is deleted
+	 * @throws IndexOutOfBoundsException
+	 */
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int target = this.root;
+		while (pos != this.rank[target]) {
+			if (pos < this.rank[target]) {
+				this.rank[target]--;
+				target = this.left[target];
+			} else {
+				pos -= this.rank[target] + 1;
+				target = this.right[target];
+			}
+		}
+		char result = this.element[target];
+
+		int removed = target;
+		if (this.left[target] != NULL && this.right[target] != NULL) {
+			removed = this.right[target];
+			while (this.left[removed] != NULL) {
+				this.rank[removed]--;
+				removed = this.left[removed];
+			}
+			this.element[target] = this.element[removed];
+		}
+
+		int child = (this.left[removed] != NULL) ? this.left[removed] : this.right[removed];
+		int removedParent = this.parent[removed];
+		if (removed == this.root) {
+			this.root = child;
+			this.parent[child] = NULL;
+		} else {
+			boolean wasLeft = this.left[removedParent] == removed;
+			if (wasLeft) {
+				this.left[removedParent] = child;
+			} else {
+				this.right[removedParent] = child;
+			}
+			if (child != NULL) {
+				this.parent[child] = removedParent;
+			}
+			rebalanceAfterDelete(removedParent, wasLeft);
+		}
+		if (removed == this.last) {
+			this.last = NULL;
+		}
+		freeNode(removed);
+		this.size--;
+		return result;
+	}
+
+	private int find(int pos) {
+		int current = this.root;
+		while (pos != this.rank[current]) {
+			if (pos < this.rank[current]) {
+				current = this.left[current];
+			} else {
+				pos -= this.rank[current] + 1;
+				current = this.right[current];
+			}
+		}
+		return current;
+	}
+
+	private int successor(int node) {
+		int current = node;
+		if (this.right[current] != NULL) {
+			current = this.right[current];
+			while (this.left[current] != NULL) {
+				current = this.left[current];
+			}
+			return current;
+		}
+		while (this.parent[current] != NULL && current == this.right[this.parent[current]]) {
+			current = this.parent[current];
+		}
+		return this.parent[current];
+	}
+
+	/**
+	 * Same as EditTree.balance(Node).
+	 */
+	private boolean balance(int bottom) {
+		int current = bottom;
+		while (current != this.root) {
+			int up = this.parent[current];
+			if (current == this.right[up]) {
+				switch (this.balance[up]) {
+				case LEFT:
+					this.balance[up] = SAME;
+					return false;
+				case RIGHT:
+					if (this.balance[current] == RIGHT) {
+						singleLeftRotate(up, current);
+					} else {
+						rightLeftRotate(up, current, this.left[current]);
+					}
+					return false;
+				default: // SAME
+					this.balance[up] = RIGHT;
+					break;
+				}
+			} else {
+				switch (this.balance[up]) {
+				case RIGHT:
+					this.balance[up] = SAME;
+					return false;
+				case LEFT:
+					if (this.balance[current] == LEFT) {
+						singleRightRotate(up, current);
+					} else {
+						leftRightRotate(up, current, this.right[current]);
+					}
+					return false;
+				default: // SAME
+					this.balance[up] = LEFT;
+					break;
+				}
+			}
+			current = up;
+		}
+		return true;
+	}
+
+	/**
+	 * Same as EditTree.rebalanceAfterDelete(Node, boolean).
+	 */
+	private void rebalanceAfterDelete(int parentNode, boolean leftShrank) {
+		int current = parentNode;
+		boolean fromLeft = leftShrank;
+		while (true) {
+			int shrunk;
+			if (fromLeft) {
+				switch (this.balance[current]) {
+				case LEFT:
+					this.balance[current] = SAME;
+					shrunk = current;
+					break;
+				case SAME:
+					this.balance[current] = RIGHT;
+					return;
+				default: // RIGHT
+					int child = this.right[current];
+					if (this.balance[child] == SAME) {
+						singleLeftRotate(current, child);
+						this.balance[current] = RIGHT;
+						this.balance[child] = LEFT;
+						return;
+					} else if (this.balance[child] == RIGHT) {
+						shrunk = singleLeftRotate(current, child);
+					} else {
+						shrunk = this.left[child];
+						rightLeftRotate(current, child, shrunk);
+					}
+				}
+			} else {
+				switch (this.balance[current]) {
+				case RIGHT:
+					this.balance[current] = SAME;
+					shrunk = current;
+					break;
+				case SAME:
+					this.balance[current] = LEFT;
+					return;
+				default: // LEFT
+					int child = this.left[current];
+					if (this.balance[child] == SAME) {
+						singleRightRotate(current, child);
+						this.balance[current] = LEFT;
+						this.balance[child] = RIGHT;
+						return;
+					} else if (this.balance[child] == LEFT) {
+						shrunk = singleRightRotate(current, child);
+					} else {
+						shrunk = this.right[child];
+						leftRightRotate(current, child, shrunk);
+					}
+				}
+			}
+			if (shrunk == this.root) {
+				return;
+			}
+			fromLeft = this.left[this.parent[shrunk]] == shrunk;
+			current = this.parent[shrunk];
+		}
+	}
+
+	/**
+	 * Puts child where top was under top's parent, or at the root.
+	 */
+	private void replaceChild(int top, int child) {
+		int up = this.parent[top];
+		if (this.root == top) {
+			this.root = child;
+		} else if (this.left[up] == top) {
+			this.left[up] = child;
+		} else {
+			this.right[up] = child;
+		}
+		this.parent[child] = up;
+		this.parent[top] = child;
+	}
+
+	private int singleLeftRotate(int top, int child) {
+		this.parent[this.left[child]] = top;
+		this.right[top] = this.left[child];
+		this.left[child] = top;
+		this.balance[top] = SAME;
+		this.balance[child] = SAME;
+		replaceChild(top, child);
+		this.rank[child] += this.rank[top] + 1;
+		this.rotationCount++;
+		return child;
+	}
+
+	private int singleRightRotate(int top, int child) {
+		this.parent[this.right[child]] = top;
+		this.left[top] = this.right[child];
+		this.right[child] = top;
+		this.balance[top] = SAME;
+		this.balance[child] = SAME;
+		replaceChild(top, child);
+		this.rank[top] -= this.rank[child] + 1;
+		this.rotationCount++;
+		return child;
+	}
+
+	private void leftRightRotate(int top, int middle, int child) {
+		byte childBalance = this.balance[child];
+		this.parent[this.right[child]] = top;
+		this.left[top] = this.right[child];
+		this.right[child] = top;
+		this.parent[this.left[child]] = middle;
+		this.right[middle] = this.left[child];
+		this.left[child] = middle;
+		replaceChild(top, child);
+		this.parent[middle] = child;
+		this.balance[child] = SAME;
+		this.balance[middle] = (childBalance == RIGHT) ? LEFT : SAME;
+		this.balance[top] = (childBalance == LEFT) ? RIGHT : SAME;
+		this.rank[top] -= this.rank[middle] + 1 + this.rank[child] + 1;
+		this.rank[child] += this.rank[middle] + 1;
+		this.rotationCount += 2;
+	}
+
+	private void rightLeftRotate(int top, int middle, int child) {
+		byte childBalance = this.balance[child];
+		this.parent[this.left[child]] = top;
+		this.right[top] = this.left[child];
+		this.left[child] = top;
+		this.parent[this.right[child]] = middle;
+		this.left[middle] = this.right[child];
+		this.right[child] = middle;
+		replaceChild(top, child);
+		this.parent[middle] = child;
+		this.balance[child] = SAME;
+		this.balance[middle] = (childBalance == LEFT) ? RIGHT : SAME;
+		this.balance[top] = (childBalance == RIGHT) ? LEFT : SAME;
+		this.rank[middle] -= this.rank[child] + 1;
+		this.rank[child] += this.rank[top] + 1;
+		this.rotationCount += 2;
+	}
+}
@@ -0,0 +1,116 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ArenaEditTreeTest {
+
+	@Test
+	public void testEmptyAndSingle() {
+		ArenaEditTree t = new ArenaEditTree();
+		assertEquals("", t.toString());
+		assertEquals("[]", t.toDebugString());
+		assertEquals(-1, t.height());
+		t = new ArenaEditTree('a');
+		assertEquals("a", t.toString());
+		assertEquals("[a0=]", t.toDebugString());
+		assertEquals(0, t.height());
+	}
+
+	@Test
+	public void testConstructorWithStringMatchesEditTree() {
+		StringBuilder s = new StringBuilder();
+		for (int n = 0; n < 100; n++) {
+			ArenaEditTree t = new ArenaEditTree(s.toString());
+			assertEquals(new EditTree(s.toString()).toDebugString(), t.toDebugString());
+			assertEquals(s.toString(), t.toString());
+			assertTrue(t.isBalanced());
+			s.append((char) ('a' + n % 26));
+		}
+	}
+
+	@Test
+	public void testRandomEditsMatchEditTree() {
+		// Both trees run the same algorithms, so after every edit they must
+		// have the same shape and have done the same rotations.
+		Random gen = new Random(2);
+		EditTree expected = new EditTree("the quick brown fox");
+		ArenaEditTree t = new ArenaEditTree("the quick brown fox");
+		for (int i = 0; i < 3000; i++) {
+			int choice = gen.nextInt(5);
+			if (choice == 0 && t.size() > 0) {
+				int pos = gen.nextInt(t.size());
+				assertEquals(expected.delete(pos), t.delete(pos));
+			} else if (choice == 1) {
+				char c = (char) ('a' + gen.nextInt(26));
+				expected.add(c);
+				t.add(c);
+			} else {
+				char c = (char) ('a' + gen.nextInt(26));
+				int pos = gen.nextInt(t.size() + 1);
+				expected.add(c, pos);
+				t.add(c, pos);
+			}
+			assertEquals(expected.toDebugString(), t.toDebugString());
+			assertEquals(expected.totalRotationCount(), t.totalRotationCount());
+			assertEquals(expected.height(), t.height());
+		}
+		assertTrue(t.isBalanced());
+		assertEquals(expected.toString(), t.toString());
+		for (int pos = 0; pos < t.size(); pos += 7) {
+			assertEquals(expected.get(pos), t.get(pos));
+			assertEquals(expected.get(pos, Math.min(20, t.size() - pos)), t.get(pos, Math.min(20, t.size() - pos)));
+		}
+	}
+
+	@Test
+	public void testDeleteAllThenReuse() {
+		ArenaEditTree t = new ArenaEditTree("abcdefghijklmnopqrstuvwxyz");
+		for (int i = 0; i < 26; i++) {
+			t.delete(t.size() / 2);
+			assertTrue(t.isBalanced());
+		}
+		assertEquals("", t.toString());
+		// Deleted nodes are handed out again.
+		for (char c = 'a'; c <= 'z'; c++) {
+			t.add(c, 0);
+		}
+		assertEquals("zyxwvutsrqponmlkjihgfedcba", t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testThrowsIndexExceptions() {
+		ArenaEditTree t = new ArenaEditTree("abc");
+		try {
+			t.add('x', 4);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		try {
+			t.get(3);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		try {
+			t.get(1, Integer.MAX_VALUE);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		try {
+			t.delete(-1);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		assertEquals("abc", t.toString());
+	}
+}
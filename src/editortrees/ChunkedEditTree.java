@@ -0,0 +1,535 @@
+package editortrees;
+
+import java.util.Arrays;
+
+// A height-balanced tree with rank whose nodes each hold a run of characters
+// instead of a single one. This trades the one-node-per-character shape of
+// EditTree (which the unit tests inspect through toDebugString) for roughly
+// an order of magnitude less memory per character on large documents. To keep
+// it that way, every chunk is kept at least half full where edits could have
+// left it emptier: after a delete, and where split() cuts and concatenate()
+// joins.
+
+public class ChunkedEditTree {
+
+	public static final int DEFAULT_CHUNK_CAPACITY = 256;
+
+	private Chunk root;
+	private int size;
+	private final int capacity;
+
+	/**
+	 * Construct an empty tree whose nodes hold up to DEFAULT_CHUNK_CAPACITY
+	 * characters each.
+	 */
+	public ChunkedEditTree() {
+		this(DEFAULT_CHUNK_CAPACITY);
+	}
+
+	/**
+	 * Construct an empty tree whose nodes hold up to capacity characters each.
+	 *
+	 * @param capacity
+	 * @throws IllegalArgumentException
+	 *             if capacity is less than 2
+	 */
+	public ChunkedEditTree(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("chunk capacity must be at least 2");
+		}
+		this.capacity = capacity;
+		this.root = null;
+		this.size = 0;
+	}
+
+	/**
+	 *
+	 * @return the number of characters in this tree
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 *
+	 * @return the height of this tree, counted in chunks
+	 */
+	public int height() {
+		return height(this.root);
+	}
+
+	/**
+	 *
+	 * @param pos
+	 *            position in the tree
+	 * @return the character at that position
+	 * @throws IndexOutOfBoundsException
+	 */
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		Chunk current = this.root;
+		while (true) {
+			if (pos < current.rank) {
+				current = current.left;
+			} else if (pos < current.rank + current.length) {
+				return current.chars[pos - current.rank];
+			} else {
+				pos -= current.rank + current.length;
+				current = current.right;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param c
+	 *            character to add to the end of this tree.
+	 */
+	public void add(char c) {
+		add(c, this.size);
+	}
+
+	/**
+	 *
+	 * @param c
+	 *            character to add
+	 * @param pos
+	 *            character added in this inorder position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	public void add(char c, int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.root == null) {
+			this.root = new Chunk(this.capacity);
+			this.root.chars[0] = c;
+			this.root.length = 1;
+		} else {
+			this.root = add(this.root, c, pos);
+		}
+		this.size++;
+	}
+
+	/**
+	 *
+	 * @param pos
+	 *            position of character to delete from this tree
+	 * @return the character that is deleted
+	 * @throws IndexOutOfBoundsException
+	 */
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		char[] deleted = new char[1];
+		this.root = delete(this.root, pos, deleted);
+		this.size--;
+		// The chunk that lost the character ends just before pos or starts
+		// at it, depending on whether it was emptied.
+		if (pos > 0) {
+			fixUnderflow(pos - 1);
+		}
+		if (pos < this.size) {
+			fixUnderflow(pos);
+		}
+		return deleted[0];
+	}
+
+	/**
+	 * Append (in time proportional to the log of the size of the larger tree)
+	 * the contents of the other tree to this one. Other is made empty after
+	 * this operation.
+	 *
+	 * @param other
+	 * @throws IllegalArgumentException
+	 *             if this == other
+	 */
+	public void concatenate(ChunkedEditTree other) throws IllegalArgumentException {
+		if (this == other) {
+			throw new IllegalArgumentException();
+		}
+		if (other.root != null) {
+			int seam = this.size;
+			if (this.root == null) {
+				this.root = other.root;
+			} else {
+				// The leftmost chunk of other becomes the pivot of the join.
+				Chunk[] pivot = new Chunk[1];
+				Chunk rest = removeFirst(other.root, pivot);
+				this.root = join(this.root, this.size, pivot[0], rest);
+			}
+			this.size += other.size;
+			if (seam > 0) {
+				fixUnderflow(seam - 1);
+				fixUnderflow(seam);
+			}
+		}
+		other.root = null;
+		other.size = 0;
+	}
+
+	/**
+	 * This operation is done in time proportional to the height of this tree.
+	 * A chunk that straddles pos is cut in two.
+	 *
+	 * @param pos
+	 *            where to split this tree
+	 * @return a new tree, with the same chunk capacity, containing all of the
+	 *         elements of this tree whose positions are >= pos. They are
+	 *         removed from this tree.
+	 * @throws IndexOutOfBoundsException
+	 */
+	public ChunkedEditTree split(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		Chunk[] halves = split(this.root, pos);
+		ChunkedEditTree result = new ChunkedEditTree(this.capacity);
+		result.root = halves[1];
+		result.size = this.size - pos;
+		this.root = halves[0];
+		this.size = pos;
+		if (pos > 0) {
+			fixUnderflow(pos - 1);
+		}
+		if (result.size > 0) {
+			result.fixUnderflow(0);
+		}
+		return result;
+	}
+
+	/**
+	 * return the string produced by an inorder traversal of this tree
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder(this.size);
+		appendTo(this.root, result);
+		return result.toString();
+	}
+
+	/**
+	 * @return the number of chunks in this tree, in O(chunks) time
+	 */
+	int chunkCount() {
+		return chunkCount(this.root);
+	}
+
+	private static int chunkCount(Chunk node) {
+		return (node == null) ? 0 : chunkCount(node.left) + 1 + chunkCount(node.right);
+	}
+
+	private static void appendTo(Chunk node, StringBuilder result) {
+		while (node != null) {
+			appendTo(node.left, result);
+			result.append(node.chars, 0, node.length);
+			node = node.right;
+		}
+	}
+
+	private Chunk add(Chunk node, char c, int pos) {
+		if (pos < node.rank) {
+			node.rank++;
+			node.left = add(node.left, c, pos);
+		} else if (pos <= node.rank + node.length) {
+			int offset = pos - node.rank;
+			if (node.length == node.chars.length && node.length < this.capacity) {
+				node.chars = Arrays.copyOf(node.chars, Math.min(this.capacity, 2 * node.length));
+			}
+			if (node.length < node.chars.length) {
+				System.arraycopy(node.chars, offset, node.chars, offset + 1, node.length - offset);
+				node.chars[offset] = c;
+				node.length++;
+				return node;
+			}
+			// The chunk is full. Appending past its end starts a fresh chunk,
+			// which keeps streamed text densely packed; anything else splits
+			// the chunk in half so both halves have room to grow.
+			Chunk next = new Chunk(this.capacity);
+			if (offset == node.length) {
+				next.chars[0] = c;
+				next.length = 1;
+			} else {
+				int half = node.length / 2;
+				next.length = node.length - half;
+				System.arraycopy(node.chars, half, next.chars, 0, next.length);
+				node.length = half;
+				if (offset <= half) {
+					System.arraycopy(node.chars, offset, node.chars, offset + 1, half - offset);
+					node.chars[offset] = c;
+					node.length++;
+				} else {
+					offset -= half;
+					System.arraycopy(next.chars, offset, next.chars, offset + 1, next.length - offset);
+					next.chars[offset] = c;
+					next.length++;
+				}
+			}
+			node.right = addFirst(node.right, next);
+		} else {
+			node.right = add(node.right, c, pos - node.rank - node.length);
+		}
+		return rebalance(node);
+	}
+
+	private static Chunk delete(Chunk node, int pos, char[] deleted) {
+		if (pos < node.rank) {
+			node.rank--;
+			node.left = delete(node.left, pos, deleted);
+		} else if (pos < node.rank + node.length) {
+			int offset = pos - node.rank;
+			deleted[0] = node.chars[offset];
+			System.arraycopy(node.chars, offset + 1, node.chars, offset, node.length - offset - 1);
+			node.length--;
+			if (node.length > 0) {
+				return node;
+			}
+			// Drop the empty chunk by joining its subtrees around the
+			// successor chunk.
+			if (node.right == null) {
+				return node.left;
+			}
+			Chunk[] successor = new Chunk[1];
+			Chunk rest = removeFirst(node.right, successor);
+			return join(node.left, node.rank, successor[0], rest);
+		} else {
+			node.right = delete(node.right, pos - node.rank - node.length, deleted);
+		}
+		return rebalance(node);
+	}
+
+	/**
+	 * Splits the subtree at node into the chunks before pos and those at or
+	 * after it.
+	 *
+	 * @return a two-element array holding the left and right subtrees
+	 */
+	private Chunk[] split(Chunk node, int pos) {
+		if (node == null) {
+			return new Chunk[2];
+		}
+		Chunk left = node.left;
+		Chunk right = node.right;
+		int leftSize = node.rank;
+		if (pos <= leftSize) {
+			Chunk[] halves = split(left, pos);
+			halves[1] = join(halves[1], leftSize - pos, node, right);
+			return halves;
+		}
+		if (pos >= leftSize + node.length) {
+			Chunk[] halves = split(right, pos - leftSize - node.length);
+			halves[0] = join(left, leftSize, node, halves[0]);
+			return halves;
+		}
+		int offset = pos - leftSize;
+		// The tail gets an array of just the size it needs; it grows again
+		// if characters are added to it.
+		Chunk tail = new Chunk(node.length - offset);
+		tail.length = node.length - offset;
+		System.arraycopy(node.chars, offset, tail.chars, 0, tail.length);
+		node.length = offset;
+		return new Chunk[] { join(left, leftSize, node, null), join(null, 0, tail, right) };
+	}
+
+	/**
+	 * Merges the chunk holding pos with a neighbor while it is less than half
+	 * full, or, if the two do not fit into one chunk, shares their characters
+	 * evenly between them. Either way this costs O(log N).
+	 */
+	private void fixUnderflow(int pos) {
+		int[] start = new int[1];
+		while (true) {
+			Chunk chunk = find(pos, start);
+			if (2 * chunk.length >= this.capacity || chunk.length == this.size) {
+				return;
+			}
+			int from = start[0];
+			int to = start[0] + chunk.length;
+			if (to < this.size) {
+				to += find(to, start).length;
+			} else {
+				find(from - 1, start);
+				from = start[0];
+			}
+			if (!rechunk(from, to)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the two chunks that hold exactly the positions from start to
+	 * end with one chunk if they fit, or else with two of equal size.
+	 *
+	 * @return true if the result is one chunk, which may still be less than
+	 *         half full
+	 */
+	private boolean rechunk(int start, int end) {
+		// Both splits are at chunk boundaries, so they cut no chunk.
+		Chunk[] outer = split(this.root, start);
+		Chunk[] inner = split(outer[1], end - start);
+		int length = end - start;
+		char[] chars = new char[length];
+		copyTo(inner[0], chars, 0);
+		if (length <= this.capacity) {
+			this.root = join(outer[0], start, newChunk(chars, 0, length), inner[1]);
+			return true;
+		}
+		int half = length / 2;
+		Chunk left = join(outer[0], start, newChunk(chars, 0, half), null);
+		this.root = join(left, start + half, newChunk(chars, half, length), inner[1]);
+		return false;
+	}
+
+	/**
+	 * @return the chunk holding pos; its first position is stored in start[0]
+	 */
+	private Chunk find(int pos, int[] start) {
+		Chunk current = this.root;
+		int offset = 0;
+		while (true) {
+			if (pos < offset + current.rank) {
+				current = current.left;
+			} else if (pos < offset + current.rank + current.length) {
+				start[0] = offset + current.rank;
+				return current;
+			} else {
+				offset += current.rank + current.length;
+				current = current.right;
+			}
+		}
+	}
+
+	private static Chunk newChunk(char[] chars, int from, int to) {
+		Chunk chunk = new Chunk(to - from);
+		System.arraycopy(chars, from, chunk.chars, 0, to - from);
+		chunk.length = to - from;
+		return chunk;
+	}
+
+	private static int copyTo(Chunk node, char[] dst, int offset) {
+		while (node != null) {
+			offset = copyTo(node.left, dst, offset);
+			System.arraycopy(node.chars, 0, dst, offset, node.length);
+			offset += node.length;
+			node = node.right;
+		}
+		return offset;
+	}
+
+	/**
+	 * Joins left, pivot and right (in that inorder sequence) into one balanced
+	 * subtree in time proportional to the difference of their heights.
+	 *
+	 * @param leftSize
+	 *            number of characters in left
+	 */
+	private static Chunk join(Chunk left, int leftSize, Chunk pivot, Chunk right) {
+		int leftHeight = height(left);
+		int rightHeight = height(right);
+		if (leftHeight > rightHeight + 1) {
+			left.right = join(left.right, leftSize - left.rank - left.length, pivot, right);
+			return rebalance(left);
+		}
+		if (rightHeight > leftHeight + 1) {
+			right.rank += leftSize + pivot.length;
+			right.left = join(left, leftSize, pivot, right.left);
+			return rebalance(right);
+		}
+		pivot.left = left;
+		pivot.right = right;
+		pivot.rank = leftSize;
+		pivot.update();
+		return pivot;
+	}
+
+	private static Chunk addFirst(Chunk node, Chunk first) {
+		return join(null, 0, first, node);
+	}
+
+	/**
+	 * Detaches the leftmost chunk of the subtree at node.
+	 *
+	 * @param removed
+	 *            receives the detached chunk
+	 * @return the remaining subtree
+	 */
+	private static Chunk removeFirst(Chunk node, Chunk[] removed) {
+		if (node.left == null) {
+			removed[0] = node;
+			Chunk rest = node.right;
+			node.right = null;
+			node.update();
+			return rest;
+		}
+		node.left = removeFirst(node.left, removed);
+		node.rank -= removed[0].length;
+		return rebalance(node);
+	}
+
+	private static int height(Chunk node) {
+		return node == null ? -1 : node.height;
+	}
+
+	private static Chunk rebalance(Chunk node) {
+		int difference = height(node.right) - height(node.left);
+		if (difference > 1) {
+			if (height(node.right.left) > height(node.right.right)) {
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
+		}
+		if (difference < -1) {
+			if (height(node.left.right) > height(node.left.left)) {
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
+		}
+		node.update();
+		return node;
+	}
+
+	private static Chunk rotateLeft(Chunk parent) {
+		Chunk child = parent.right;
+		parent.right = child.left;
+		child.left = parent;
+		child.rank += parent.rank + parent.length;
+		parent.update();
+		child.update();
+		return child;
+	}
+
+	private static Chunk rotateRight(Chunk parent) {
+		Chunk child = parent.left;
+		parent.left = child.right;
+		child.right = parent;
+		parent.rank -= child.rank + child.length;
+		child.update();
+		parent.update();
+		return child;
+	}
+
+	// A run of characters. Unlike Node, a chunk keeps an explicit height:
+	// joins and splits compare subtree heights, and one int per chunk is
+	// negligible next to the characters it holds. chars may be shorter than
+	// the tree's capacity; it is grown when it fills up.
+	private static class Chunk {
+		char[] chars;
+		int length; // number of characters in use at the front of chars
+		int rank; // number of characters in the left subtree
+		int height;
+		Chunk left, right;
+
+		Chunk(int arrayLength) {
+			this.chars = new char[arrayLength];
+		}
+
+		void update() {
+			this.height = 1 + Math.max(ChunkedEditTree.height(this.left), ChunkedEditTree.height(this.right));
+		}
+	}
+}
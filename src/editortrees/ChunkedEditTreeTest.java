@@ -0,0 +1,161 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChunkedEditTreeTest {
+
+	// Small chunks so that a few dozen characters already exercise chunk
+	// splits, rotations and joins.
+	private static final int CAPACITY = 4;
+
+	@Test
+	public void testEmpty() {
+		ChunkedEditTree t = new ChunkedEditTree(CAPACITY);
+		assertEquals("", t.toString());
+		assertEquals(0, t.size());
+		assertEquals(-1, t.height());
+	}
+
+	@Test
+	public void testAppendFillsChunks() {
+		ChunkedEditTree t = new ChunkedEditTree(CAPACITY);
+		String expected = "abcdefghijklmnopqrstuvwxyz";
+		for (int i = 0; i < expected.length(); i++) {
+			t.add(expected.charAt(i));
+		}
+		assertEquals(expected, t.toString());
+		assertEquals(26, t.size());
+		// 7 full-ish chunks fit in a tree of height 2.
+		assertEquals(2, t.height());
+		for (int i = 0; i < expected.length(); i++) {
+			assertEquals(expected.charAt(i), t.get(i));
+		}
+	}
+
+	@Test
+	public void testThrowsIndexExceptions() {
+		ChunkedEditTree t = new ChunkedEditTree(CAPACITY);
+		try {
+			t.add('a', 1);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		t.add('a');
+		try {
+			t.get(1);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		try {
+			t.delete(-1);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testRandomAddDelete() {
+		Random gen = new Random(230);
+		ChunkedEditTree t = new ChunkedEditTree(CAPACITY);
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			if (analog.length() > 0 && gen.nextInt(3) == 0) {
+				int pos = gen.nextInt(analog.length());
+				assertEquals(analog.charAt(pos), t.delete(pos));
+				analog.deleteCharAt(pos);
+			} else {
+				char c = (char) ('a' + gen.nextInt(26));
+				int pos = gen.nextInt(analog.length() + 1);
+				t.add(c, pos);
+				analog.insert(pos, c);
+			}
+		}
+		assertEquals(analog.toString(), t.toString());
+		assertEquals(analog.length(), t.size());
+		assertTrue(t.height() <= 2 * log2(t.size()));
+	}
+
+	@Test
+	public void testSplitAndConcatenate() {
+		String str = "the quick brown fox jumps over the lazy dog";
+		for (int i = 0; i <= str.length(); i++) {
+			ChunkedEditTree t1 = new ChunkedEditTree(CAPACITY);
+			for (int k = 0; k < str.length(); k++) {
+				t1.add(str.charAt(k));
+			}
+			ChunkedEditTree t2 = t1.split(i);
+			assertEquals(str.substring(0, i), t1.toString());
+			assertEquals(str.substring(i), t2.toString());
+			assertEquals(i, t1.size());
+			t2.add('!', 0);
+			t1.concatenate(t2);
+			assertEquals(str.substring(0, i) + "!" + str.substring(i), t1.toString());
+			assertEquals("", t2.toString());
+			assertEquals(0, t2.size());
+		}
+	}
+
+	@Test
+	public void testConcatenateSelf() {
+		ChunkedEditTree t = new ChunkedEditTree(CAPACITY);
+		try {
+			t.concatenate(t);
+			fail("Did not throw IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testChunksStayAtLeastHalfFull() {
+		int capacity = 64;
+		ChunkedEditTree t = new ChunkedEditTree(capacity);
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 64 * 200; i++) {
+			t.add((char) ('a' + i % 26));
+			analog.append((char) ('a' + i % 26));
+		}
+
+		// Splits cut chunks; concatenating the halves again must not leave
+		// the cut pieces behind as small chunks.
+		Random gen = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			ChunkedEditTree rest = t.split(gen.nextInt(t.size() + 1));
+			t.concatenate(rest);
+		}
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.chunkCount() <= 2 * t.size() / capacity + 2);
+
+		// Deleting most characters merges the chunks they leave behind.
+		for (int pos = t.size() - 1; pos >= 0; pos--) {
+			if (pos % 16 != 0) {
+				t.delete(pos);
+				analog.deleteCharAt(pos);
+			}
+		}
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.chunkCount() <= 2 * t.size() / capacity + 2);
+
+		// Random deletes from the middle, too.
+		for (int i = 0; i < 500; i++) {
+			int pos = gen.nextInt(t.size());
+			assertEquals(analog.charAt(pos), t.delete(pos));
+			analog.deleteCharAt(pos);
+		}
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.chunkCount() <= 2 * t.size() / capacity + 2);
+	}
+
+	private static int log2(int n) {
+		return 32 - Integer.numberOfLeadingZeros(n);
+	}
+}
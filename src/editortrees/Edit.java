@@ -0,0 +1,60 @@
+package editortrees;
+
+// One change in a batch given to EditTree.applyEdits(): replace the range
+// [start, start + length) of the document with text. As with LSP text edits,
+// every range in a batch refers to the document as it was before the batch.
+
+public class Edit {
+
+	private final int start;
+	private final int length;
+	private final CharSequence text;
+
+	/**
+	 * @param start
+	 *            position of the beginning of the range to replace
+	 * @param length
+	 *            length of the range to replace; 0 for a pure insertion
+	 * @param text
+	 *            the characters to put in its place; empty for a pure
+	 *            deletion
+	 * @throws IllegalArgumentException
+	 *             if start or length is negative, if the range ends past
+	 *             Integer.MAX_VALUE, or if text is null
+	 */
+	public Edit(int start, int length, CharSequence text) {
+		if (start < 0 || length < 0) {
+			throw new IllegalArgumentException("negative edit range");
+		}
+		if (length > Integer.MAX_VALUE - start) {
+			throw new IllegalArgumentException("edit range too long");
+		}
+		if (text == null) {
+			throw new IllegalArgumentException("null edit text");
+		}
+		this.start = start;
+		this.length = length;
+		this.text = text;
+	}
+
+	public int getStart() {
+		return this.start;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	public int getEnd() {
+		return this.start + this.length;
+	}
+
+	public CharSequence getText() {
+		return this.text;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.start + ", " + getEnd() + ") -> \"" + this.text + "\"";
+	}
+}
@@ -1,19 +1,88 @@
 package editortrees;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import editortrees.Node.Code;
 
 // A height-balanced binary tree with rank that could be the basis for a text editor.
 
-public class EditTree {
+public class EditTree implements CharSequence {
 
 	private Node root;
 	public static final Node NULL_NODE = new Node();
 	private int rotationCount = 0;
 	private int size;
+	// The rightmost node, so that appending does not have to walk down to it.
+	// Rotations never change which node is rightmost, so only adds, deletes,
+	// splits and concatenations have to maintain it. null means it is not
+	// known and is recomputed on the next append.
+	private Node last = null;
+	// Incremented by every structural change and every buffered edit, so
+	// that cursors can tell when the node they point at may have moved and
+	// iterators can tell that they are out of date.
+	private int modCount = 0;
+	// height() as of modCount heightModCount, since split() and concatenate()
+	// ask for it on every call.
+	private int height;
+	private int heightModCount = -1;
+	// Where charAt() last looked, so that looking nearby is cheap; null
+	// until the first call.
+	private Cursor finger = null;
+	// Single-character edits accepted in batch mode but not yet applied to
+	// the nodes; null outside batch mode.
+	private PendingEdits pending = null;
+	// Characters typed at adjacent positions in write-combining mode but not
+	// yet added, which belong at runStart; null outside that mode.
+	private StringBuilder run = null;
+	private int runStart;
+
+	// Below this many characters a subtree is built without forking; handing
+	// a task to another thread costs far more than building a small subtree.
+	private static final int PARALLEL_BUILD_THRESHOLD = 1 << 16;
+
+	// Rough number of node visits per level of the tree for one replace():
+	// two splits, each a walk from the root to the cut, and two
+	// concatenations, each a walk to the first node of the right-hand tree
+	// in removeFirst() and another down the taller tree to the join point.
+	private static final int REPLACE_COST_PER_LEVEL = 6;
+
+	// Write-combining runs of at most this many characters are added one
+	// character at a time: adding a run as a whole takes a split and two
+	// concatenations, which for scattered keystrokes only pays off once the
+	// run is longer than this.
+	private static final int SHORT_RUN_LENGTH = 6;
+
+	// Orders a batch of edits by start position, with pure insertions before
+	// an edit that replaces a range starting at the same position, so that
+	// whether ranges overlap does not depend on the order they were given
+	// in. Collections.sort() is stable, so insertions at the same position
+	// keep their order.
+	private static final Comparator<Edit> BY_START = new Comparator<Edit>() {
+		@Override
+		public int compare(Edit a, Edit b) {
+			if (a.getStart() != b.getStart()) {
+				return (a.getStart() < b.getStart()) ? -1 : 1;
+			}
+			int aReplaces = (a.getLength() == 0) ? 0 : 1;
+			int bReplaces = (b.getLength() == 0) ? 0 : 1;
+			return aReplaces - bReplaces;
+		}
+	};
 
 	/**
 	 * Construct an empty tree
@@ -31,6 +100,7 @@ public class EditTree {
 	public EditTree(char c) {
 		this.size = 1;
 		this.root = new Node(c);
+		this.last = this.root;
 	}
 
 	/**
@@ -41,7 +111,23 @@ public class EditTree {
 	 * @param s
 	 */
 	public EditTree(String s) {
+		this.size = s.length();
+		this.root = build(s, 0, s.length(), NULL_NODE);
+	}
 
+	/**
+	 * Create an EditTree whose toString is s, building its subtrees on up to
+	 * the given number of threads. The result is the same tree the String
+	 * constructor builds. s is only read, so a CharBuffer over a
+	 * memory-mapped file works as long as nobody writes to it meanwhile.
+	 * 
+	 * @param s
+	 * @param threads
+	 *            number of threads to build on
+	 */
+	public EditTree(CharSequence s, int threads) {
+		this.size = s.length();
+		this.root = build(s, 0, s.length(), NULL_NODE, threads);
 	}
 
 	/**
@@ -51,7 +137,22 @@ public class EditTree {
 	 * @param e
 	 */
 	public EditTree(EditTree e) {
+		this(e, 1);
+	}
 
+	/**
+	 * Same as EditTree(e), but the subtrees of large trees are copied on up
+	 * to the given number of threads.
+	 * 
+	 * @param e
+	 * @param threads
+	 *            number of threads to copy on
+	 */
+	public EditTree(EditTree e, int threads) {
+		e.applyPending();
+		this.size = e.size;
+		this.rotationCount = e.rotationCount;
+		this.root = copy(e.root, NULL_NODE, e.size, threads);
 	}
 
 	/**
@@ -59,21 +160,72 @@ public class EditTree {
 	 * @return the height of this tree
 	 */
 	public int height() {
-		return this.root.height();
+		applyPending();
+		if (this.heightModCount != this.modCount) {
+			this.height = this.root.height();
+			this.heightModCount = this.modCount;
+		}
+		return this.height;
 	}
 	
 	public int debugHeight() {
+		applyPending();
 		return this.root.debugHeight();
 	}
 
+	/**
+	 * Checks every node of this tree from scratch: its balance code must match
+	 * the heights of its subtrees (which may differ by at most one), its rank
+	 * must be the size of its left subtree, and its children must point back
+	 * to it. Like the other debug methods, this is O(N).
+	 * 
+	 * @return true if this is a correctly annotated height-balanced tree
+	 */
+	public boolean isBalanced() {
+		applyPending();
+		return checkSubtree(this.root, NULL_NODE, new int[1]) >= 0;
+	}
+
+	/**
+	 * @return the size of the subtree at node, or -1 if it is malformed. Its
+	 *         height is stored in height[0].
+	 */
+	private static int checkSubtree(Node node, Node parent, int[] height) {
+		if (node == NULL_NODE) {
+			height[0] = -1;
+			return 0;
+		}
+		if (node.parent != parent) {
+			return -1;
+		}
+		int leftSize = checkSubtree(node.left, node, height);
+		int leftHeight = height[0];
+		int rightSize = checkSubtree(node.right, node, height);
+		int rightHeight = height[0];
+		if (leftSize < 0 || rightSize < 0 || node.rank != leftSize) {
+			return -1;
+		}
+		Code expected = (leftHeight == rightHeight) ? Code.SAME : (leftHeight > rightHeight) ? Code.LEFT : Code.RIGHT;
+		if (Math.abs(leftHeight - rightHeight) > 1 || node.balance != expected) {
+			return -1;
+		}
+		height[0] = Math.max(leftHeight, rightHeight) + 1;
+		return leftSize + rightSize + 1;
+	}
+
 	/**
 	 * 
 	 * returns the total number of rotations done in this tree since it was
-	 * created. A double rotation counts as two.
+	 * created. A double rotation counts as two. All rotations that an
+	 * operation needs count in the tree it was called on, even those done
+	 * in another tree on the way: concatenate() counts the ones that detach
+	 * the first node of other, and split() counts the ones that assemble the
+	 * tree it returns, which starts from zero.
 	 *
 	 * @return number of rotations since tree was created.
 	 */
 	public int totalRotationCount() {
+		applyPending();
 		return this.rotationCount; // replace by a real calculation.
 	}
 
@@ -82,12 +234,10 @@ public class EditTree {
 	 */
 	@Override
 	public String toString() {
-		StringBuilder result = new StringBuilder("");
-		Iterator<Node> itr = new InOrderNodeIterator();
-		while (itr.hasNext()) {
-			result.append(itr.next().element);
-		}
-		return result.toString();
+		applyPending();
+		char[] result = new char[this.size];
+		getChars(0, this.size, result, 0);
+		return new String(result);
 	}
 
 	/**
@@ -105,6 +255,7 @@ public class EditTree {
 	 *         pre-order traversal of the tree.
 	 */
 	public String toDebugString() {
+		applyPending();
 		StringBuilder result = new StringBuilder("[");
 		Iterator<Node> itr = new PreOrderNodeIterator();
 		if (!itr.hasNext())
@@ -139,6 +290,7 @@ public class EditTree {
 	 * @throws IndexOutOfBoundsException
 	 */
 	public char get(int pos) throws IndexOutOfBoundsException {
+		applyPending();
 		if (pos < 0 || pos >= size) {
 			throw new IndexOutOfBoundsException();
 		}
@@ -160,18 +312,38 @@ public class EditTree {
 		// you!
 		// 2. Unit tests are cumulative, and many things are based on add(), so
 		// make sure that you get this one correct.
+		if (this.pending != null || this.run != null) {
+			add(c, size());
+			return;
+		}
 		this.size++;
-		Node currentNode = this.root;
+		this.modCount++;
 		if (this.root == NULL_NODE) {
 			this.root = new Node(c);
+			this.last = this.root;
 			return;
 		}
-		while (currentNode.right != NULL_NODE) {
-			currentNode = currentNode.right;
-		}
+		// A new rightmost node always hangs off the old one, and it is in no
+		// node's left subtree, so no ranks change on the way.
+		Node currentNode = lastNode();
 		currentNode.right = new Node(c, currentNode);
-		// TODO: Just call balance here on currentNode.right;
-		balance(currentNode.right);
+		this.last = currentNode.right;
+		balance(this.last);
+	}
+
+	/**
+	 * @return the rightmost node of this non-empty tree, found in O(1) time
+	 *         unless the cache was invalidated.
+	 */
+	private Node lastNode() {
+		if (this.last == null) {
+			Node currentNode = this.root;
+			while (currentNode.right != NULL_NODE) {
+				currentNode = currentNode.right;
+			}
+			this.last = currentNode;
+		}
+		return this.last;
 	}
 
 	/**
@@ -187,15 +359,232 @@ public class EditTree {
 		if (pos > this.size() || pos < 0) {
 			throw new IndexOutOfBoundsException();
 		}
-		this. size++;
-		if (this.root == NULL_NODE) {
-			this.root = new Node(c);
+		if (this.pending != null) {
+			this.pending.add(c, pos);
+			this.modCount++;
 			return;
 		}
-		
+		if (this.run != null) {
+			if (pos < this.runStart || pos > this.runStart + this.run.length()) {
+				applyPending();
+				this.runStart = pos;
+			}
+			this.run.insert(pos - this.runStart, c);
+			this.modCount++;
+			return;
+		}
+		if (pos == this.size) {
+			add(c);
+			return;
+		}
+		this.size++;
+		this.modCount++;
 		balance(this.root.add(c, pos));
 	}
 
+	/**
+	 * Inserts all of s so that its first character ends up at pos. The
+	 * characters are built into a balanced tree of their own in O(|s|) time,
+	 * and that is spliced in with a split and two concatenations, which adds
+	 * only O(log N) to the cost.
+	 * 
+	 * @param s
+	 *            characters to add
+	 * @param pos
+	 *            inorder position of the first added character
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	public void add(CharSequence s, int pos) throws IndexOutOfBoundsException {
+		applyPending();
+		if (pos > this.size() || pos < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (s.length() == 0) {
+			return;
+		}
+		EditTree added = new EditTree();
+		added.root = build(s, 0, s.length(), NULL_NODE);
+		added.size = s.length();
+		EditTree rest = this.split(pos);
+		this.concatenate(added);
+		this.concatenate(rest);
+	}
+
+	/**
+	 * Builds a perfectly balanced subtree from s[start, end) in O(end - start)
+	 * time. The middle character becomes the root, and when the length is even
+	 * the extra character goes to the left, so the shape (and therefore every
+	 * rank and balance code) follows from subtree sizes alone and no rotations
+	 * are needed.
+	 * 
+	 * @return the root of the subtree, or NULL_NODE if the range is empty
+	 */
+	private static Node build(CharSequence s, int start, int end, Node parent) {
+		if (start == end) {
+			return NULL_NODE;
+		}
+		int mid = start + (end - start) / 2;
+		Node node = new Node(s.charAt(mid), parent);
+		node.left = build(s, start, mid, node);
+		node.right = build(s, mid + 1, end, node);
+		node.rank = mid - start;
+		// The left half is never smaller than the right one, so it is never
+		// the shorter subtree.
+		if (balancedHeight(mid - start) > balancedHeight(end - mid - 1)) {
+			node.balance = Code.LEFT;
+		}
+		return node;
+	}
+
+	/**
+	 * Same as build(s, start, end, parent), but large ranges are built on a
+	 * fork/join pool of the given number of threads: the right half of each
+	 * range is forked and the left half built on the current thread. The
+	 * halves are disjoint, so no two threads touch the same node, and join()
+	 * makes the forked half's nodes visible before they are linked in.
+	 */
+	private static Node build(CharSequence s, int start, int end, Node parent, int threads) {
+		if (threads <= 1 || end - start < PARALLEL_BUILD_THRESHOLD) {
+			return build(s, start, end, parent);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.invoke(new BuildTask(s, start, end, parent));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static class BuildTask extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+
+		private final CharSequence s;
+		private final int start;
+		private final int end;
+		private final Node parent;
+
+		BuildTask(CharSequence s, int start, int end, Node parent) {
+			this.s = s;
+			this.start = start;
+			this.end = end;
+			this.parent = parent;
+		}
+
+		@Override
+		protected Node compute() {
+			if (this.end - this.start < PARALLEL_BUILD_THRESHOLD) {
+				return build(this.s, this.start, this.end, this.parent);
+			}
+			int mid = this.start + (this.end - this.start) / 2;
+			Node node = new Node(this.s.charAt(mid), this.parent);
+			BuildTask right = new BuildTask(this.s, mid + 1, this.end, node);
+			right.fork();
+			node.left = new BuildTask(this.s, this.start, mid, node).compute();
+			node.right = right.join();
+			node.rank = mid - this.start;
+			if (balancedHeight(mid - this.start) > balancedHeight(this.end - mid - 1)) {
+				node.balance = Code.LEFT;
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Copies the subtree at original, which has the given number of nodes, in
+	 * O(nodes) time. Large subtrees are copied on a fork/join pool of the
+	 * given number of threads, exactly like the parallel build.
+	 * 
+	 * @return the root of the copy, whose parent is parent
+	 */
+	private static Node copy(Node original, Node parent, int nodes, int threads) {
+		if (original == NULL_NODE) {
+			return NULL_NODE;
+		}
+		if (threads <= 1 || nodes < PARALLEL_BUILD_THRESHOLD) {
+			return copy(original, parent);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.invoke(new CopyTask(original, parent, nodes));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static class CopyTask extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+
+		private final Node original;
+		private final Node parent;
+		private final int nodes;
+
+		CopyTask(Node original, Node parent, int nodes) {
+			this.original = original;
+			this.parent = parent;
+			this.nodes = nodes;
+		}
+
+		@Override
+		protected Node compute() {
+			if (this.original == NULL_NODE) {
+				return NULL_NODE;
+			}
+			if (this.nodes < PARALLEL_BUILD_THRESHOLD) {
+				return copy(this.original, this.parent);
+			}
+			Node result = copyOf(this.original, this.parent);
+			CopyTask right = new CopyTask(this.original.right, result, this.nodes - this.original.rank - 1);
+			right.fork();
+			result.left = new CopyTask(this.original.left, result, this.original.rank).compute();
+			result.right = right.join();
+			return result;
+		}
+	}
+
+	/**
+	 * Copies the subtree at original without recursion, so arbitrarily deep
+	 * trees are fine. The traversal follows parent pointers in the original
+	 * and the copy in lockstep: it descends into whichever child of the
+	 * original has not been copied yet, and climbs once both have been.
+	 */
+	private static Node copy(Node original, Node parent) {
+		Node result = copyOf(original, parent);
+		Node from = original;
+		Node to = result;
+		while (true) {
+			if (from.left != NULL_NODE && to.left == NULL_NODE) {
+				to.left = copyOf(from.left, to);
+				from = from.left;
+				to = to.left;
+			} else if (from.right != NULL_NODE && to.right == NULL_NODE) {
+				to.right = copyOf(from.right, to);
+				from = from.right;
+				to = to.right;
+			} else if (from == original) {
+				return result;
+			} else {
+				from = from.parent;
+				to = to.parent;
+			}
+		}
+	}
+
+	private static Node copyOf(Node original, Node parent) {
+		Node result = new Node(original.element, parent);
+		result.rank = original.rank;
+		result.balance = original.balance;
+		return result;
+	}
+
+	/**
+	 * @return the height of a perfectly balanced tree with the given number of
+	 *         nodes
+	 */
+	private static int balancedHeight(int nodes) {
+		return 31 - Integer.numberOfLeadingZeros(nodes);
+	}
+
 	private Node singleLeftRotate(Node parent, Node child) {
 		child.left.parent = parent;
 		parent.right = child.left;
@@ -242,23 +631,32 @@ public class EditTree {
 		return child;
 	}
 
-	public void balance(Node bottom) {
+	/**
+	 * Restores the balance codes, rotating where needed, on the way up from a
+	 * node whose subtree just grew by one level.
+	 * 
+	 * @param bottom
+	 *            the node whose subtree grew
+	 * @return true if the growth reached the root, so that the whole tree is
+	 *         one level taller; false if it was absorbed on the way up
+	 */
+	public boolean balance(Node bottom) {
 		Node currentNode = bottom;
 		while (currentNode != this.root) {
 			if (currentNode == currentNode.parent.right) {
 				switch (currentNode.parent.balance) {
 				case LEFT:
 					currentNode.parent.balance = Code.SAME;
-					return;
+					return false;
 
 				case RIGHT:
 					if (currentNode.balance == Code.RIGHT) {
 						singleLeftRotate(currentNode.parent, currentNode);
-						return;
+						return false;
 					} else { // SAME will not be passed back. It is safe to
 								// assume LEFT
 						rightLeftRotate(currentNode.parent, currentNode, currentNode.left);
-						return;
+						return false;
 					}
 				default: // SAME
 					currentNode.parent.balance = Code.RIGHT;
@@ -268,16 +666,16 @@ public class EditTree {
 				switch (currentNode.parent.balance) {
 				case RIGHT:
 					currentNode.parent.balance = Code.SAME;
-					return;
+					return false;
 
 				case LEFT:
 					if (currentNode.balance == Code.LEFT) {
 						singleRightRotate(currentNode.parent, currentNode);
-						return;
+						return false;
 					} else { // SAME will not be passed back. It is safe to
 								// assume RIGHT
 						leftRightRotate(currentNode.parent, currentNode, currentNode.right);
-						return;
+						return false;
 					}
 				default: // SAME
 					currentNode.parent.balance = Code.LEFT;
@@ -286,7 +684,186 @@ public class EditTree {
 			}
 			currentNode = currentNode.parent;
 		}
-		return;
+		return true;
+	}
+
+	/**
+	 * Restores the balance codes, rotating where needed, on the way up from
+	 * parent after one of its subtrees lost a level. Unlike after an insert,
+	 * a rotation does not always end the work here: it only does when it
+	 * leaves the height of the rotated subtree unchanged.
+	 * 
+	 * @param parent
+	 *            the node whose subtree shrank
+	 * @param leftShrank
+	 *            whether it was the left subtree of parent
+	 */
+	private void rebalanceAfterDelete(Node parent, boolean leftShrank) {
+		Node currentNode = parent;
+		boolean fromLeft = leftShrank;
+		while (true) {
+			// The root of the (possibly rotated) subtree at currentNode's old
+			// place, which is now one level shorter than before.
+			Node shrunk;
+			if (fromLeft) {
+				switch (currentNode.balance) {
+				case LEFT:
+					currentNode.balance = Code.SAME;
+					shrunk = currentNode;
+					break;
+				case SAME:
+					currentNode.balance = Code.RIGHT;
+					return;
+				default: // RIGHT
+					Node child = currentNode.right;
+					if (child.balance == Code.SAME) {
+						// The rotation keeps the height, but leaves both
+						// nodes leaning rather than level.
+						singleLeftRotate(currentNode, child);
+						currentNode.balance = Code.RIGHT;
+						child.balance = Code.LEFT;
+						return;
+					} else if (child.balance == Code.RIGHT) {
+						shrunk = singleLeftRotate(currentNode, child);
+					} else {
+						shrunk = child.left;
+						rightLeftRotate(currentNode, child, shrunk);
+					}
+				}
+			} else {
+				switch (currentNode.balance) {
+				case RIGHT:
+					currentNode.balance = Code.SAME;
+					shrunk = currentNode;
+					break;
+				case SAME:
+					currentNode.balance = Code.LEFT;
+					return;
+				default: // LEFT
+					Node child = currentNode.left;
+					if (child.balance == Code.SAME) {
+						singleRightRotate(currentNode, child);
+						currentNode.balance = Code.LEFT;
+						child.balance = Code.RIGHT;
+						return;
+					} else if (child.balance == Code.LEFT) {
+						shrunk = singleRightRotate(currentNode, child);
+					} else {
+						shrunk = child.right;
+						leftRightRotate(currentNode, child, shrunk);
+					}
+				}
+			}
+			if (shrunk == this.root) {
+				return;
+			}
+			fromLeft = shrunk.isLeftChild();
+			currentNode = shrunk.parent;
+		}
+	}
+
+	/**
+	 * Makes this tree hold left, then pivot, then right, where left and right
+	 * are detached, height-balanced subtrees and pivot is a detached node.
+	 * The shorter subtree is hung where the taller one's spine reaches its
+	 * height, with pivot on top, and the taller tree is rebalanced from there
+	 * as if pivot had just been inserted. That takes time proportional to the
+	 * difference in heights.
+	 * 
+	 * @return the height of this tree afterwards
+	 */
+	private int join(Node left, int leftHeight, int leftSize, Node pivot, Node right, int rightHeight) {
+		pivot.left = NULL_NODE;
+		pivot.right = NULL_NODE;
+		if (Math.abs(leftHeight - rightHeight) <= 1) {
+			attach(pivot, left, right, leftSize);
+			pivot.balance = (leftHeight == rightHeight) ? Code.SAME : (leftHeight > rightHeight) ? Code.LEFT : Code.RIGHT;
+			pivot.parent = NULL_NODE;
+			this.root = pivot;
+			return Math.max(leftHeight, rightHeight) + 1;
+		}
+		Node parent = NULL_NODE;
+		if (leftHeight > rightHeight) {
+			// Walk down the right spine of left to a subtree whose height is
+			// rightHeight or one more; pivot takes its place.
+			Node spine = left;
+			int height = leftHeight;
+			int spineSize = leftSize;
+			while (height > rightHeight + 1) {
+				height -= (spine.balance == Code.LEFT) ? 2 : 1;
+				spineSize -= spine.rank + 1;
+				parent = spine;
+				spine = spine.right;
+			}
+			attach(pivot, spine, right, spineSize);
+			pivot.balance = (height == rightHeight) ? Code.SAME : Code.LEFT;
+			pivot.parent = parent;
+			parent.right = pivot;
+			left.parent = NULL_NODE;
+			this.root = left;
+			return balance(pivot) ? leftHeight + 1 : leftHeight;
+		}
+		// Mirror image: walk down the left spine of right, whose nodes all
+		// gain left, pivot and the rest of the spine in their left subtrees.
+		Node spine = right;
+		int height = rightHeight;
+		while (height > leftHeight + 1) {
+			height -= (spine.balance == Code.RIGHT) ? 2 : 1;
+			spine.rank += leftSize + 1;
+			parent = spine;
+			spine = spine.left;
+		}
+		attach(pivot, left, spine, leftSize);
+		pivot.balance = (height == leftHeight) ? Code.SAME : Code.RIGHT;
+		pivot.parent = parent;
+		parent.left = pivot;
+		right.parent = NULL_NODE;
+		this.root = right;
+		return balance(pivot) ? rightHeight + 1 : rightHeight;
+	}
+
+	private static void attach(Node pivot, Node left, Node right, int leftSize) {
+		pivot.left = left;
+		pivot.right = right;
+		pivot.rank = leftSize;
+		if (left != NULL_NODE) {
+			left.parent = pivot;
+		}
+		if (right != NULL_NODE) {
+			right.parent = pivot;
+		}
+	}
+
+	/**
+	 * Removes the leftmost node of this non-empty tree in O(log N) time.
+	 * 
+	 * @return the removed node
+	 */
+	private Node removeFirst() {
+		Node first = this.root;
+		while (first.left != NULL_NODE) {
+			first.rank--;
+			first = first.left;
+		}
+		// The leftmost node has no left child, so its right subtree (at most
+		// one node) simply moves up into its place.
+		Node replacement = first.right;
+		if (first == this.root) {
+			this.root = replacement;
+			replacement.parent = NULL_NODE;
+		} else {
+			first.parent.left = replacement;
+			if (replacement != NULL_NODE) {
+				replacement.parent = first.parent;
+			}
+			rebalanceAfterDelete(first.parent, true);
+		}
+		if (first == this.last) {
+			this.last = null;
+		}
+		this.size--;
+		this.modCount++;
+		return first;
 	}
 
 	private void leftRightRotate(Node parent, Node currentNode, Node child) {// (A,
@@ -368,10 +945,82 @@ public class EditTree {
 	 * @return the number of nodes in this tree
 	 */
 	public int size() {
-		return this.size; // replace by a real calculation.
+		int result = this.size;
+		if (this.pending != null) {
+			result += this.pending.sizeChange();
+		}
+		if (this.run != null) {
+			result += this.run.length();
+		}
+		return result;
+	}
+
+	/**
+	 * Same as size(), for CharSequence.
+	 */
+	@Override
+	public int length() {
+		return size();
+	}
+
+	/**
+	 * Like get(), but starts from the position of the previous call instead
+	 * of from the root, the way a Cursor does. Reading consecutive
+	 * characters, as regular expression matchers and parsers do, then costs
+	 * O(1) amortized per character instead of O(log N). Because of that
+	 * remembered position, concurrent calls from several threads are not
+	 * safe even without edits.
+	 * 
+	 * @param index
+	 *            position in the tree
+	 * @return the character at that position
+	 * @throws IndexOutOfBoundsException
+	 */
+	@Override
+	public char charAt(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.finger == null) {
+			applyPending();
+			this.finger = new Cursor(index);
+		} else {
+			this.finger.moveBy(index - this.finger.position());
+		}
+		return this.finger.charAt();
+	}
+
+	/**
+	 * Same as view(start, end), so the characters are not copied.
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) throws IndexOutOfBoundsException {
+		return view(start, end);
+	}
+
+	/**
+	 * Makes a read-only view of a range of this tree in O(1) time, without
+	 * copying anything. The view is only valid until the next edit of this
+	 * tree; after that, using it throws ConcurrentModificationException.
+	 * 
+	 * @param start
+	 *            position of the first character of the view
+	 * @param end
+	 *            position after the last character of the view
+	 * @return a view of the characters from start to end
+	 * @throws IndexOutOfBoundsException
+	 *             unless 0 <= start <= end <= size()
+	 */
+	public View view(int start, int end) throws IndexOutOfBoundsException {
+		if (start < 0 || start > end || end > size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		applyPending();
+		return new View(start, end, this.modCount);
 	}
 	
 	public int debugSize() {
+		applyPending();
 		int result = 0;
 		Node currentNode;
 		for (Iterator<Node> iter = new InOrderNodeIterator(); iter.hasNext();) {
@@ -394,12 +1043,77 @@ public class EditTree {
 		// node to be deleted with either its in-order successor or predecessor.
 		// The tests assume assume that you will replace it with the
 		// *successor*.
-		return '#'; // replace by a real calculation.
+		if (pos < 0 || pos >= this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.pending != null) {
+			this.modCount++;
+			return this.pending.delete(pos, this.root);
+		}
+		if (this.run != null && pos >= this.runStart && pos < this.runStart + this.run.length()) {
+			// Backspacing over characters just typed never reaches the tree.
+			char result = this.run.charAt(pos - this.runStart);
+			this.run.deleteCharAt(pos - this.runStart);
+			this.modCount++;
+			return result;
+		}
+		applyPending();
+		// Every node whose left subtree holds pos loses one from its rank on
+		// the way down.
+		Node target = this.root;
+		while (pos != target.rank) {
+			if (pos < target.rank) {
+				target.rank--;
+				target = target.left;
+			} else {
+				pos -= target.rank + 1;
+				target = target.right;
+			}
+		}
+		char result = target.element;
+
+		// A node with two children keeps its place and takes over its
+		// successor's character instead; the successor, which has no left
+		// child, is the node that actually leaves the tree.
+		Node removed = target;
+		if (target.left != NULL_NODE && target.right != NULL_NODE) {
+			removed = target.right;
+			while (removed.left != NULL_NODE) {
+				removed.rank--;
+				removed = removed.left;
+			}
+			target.element = removed.element;
+		}
+
+		// removed has at most one child, which moves up into its place.
+		Node child = (removed.left != NULL_NODE) ? removed.left : removed.right;
+		if (removed == this.root) {
+			this.root = child;
+			child.parent = NULL_NODE;
+		} else {
+			boolean wasLeft = removed.isLeftChild();
+			if (wasLeft) {
+				removed.parent.left = child;
+			} else {
+				removed.parent.right = child;
+			}
+			if (child != NULL_NODE) {
+				child.parent = removed.parent;
+			}
+			rebalanceAfterDelete(removed.parent, wasLeft);
+		}
+		if (removed == this.last) {
+			this.last = null;
+		}
+		this.size--;
+		this.modCount++;
+		return result;
 	}
 
 	/**
-	 * This method operates in O(length*log N), where N is the size of this
-	 * tree.
+	 * This method operates in O(length + log N), where N is the size of this
+	 * tree: it descends to pos once and then steps to in-order successors,
+	 * which costs O(1) amortized per character.
 	 * 
 	 * @param pos
 	 *            location of the beginning of the string to retrieve
@@ -411,13 +1125,55 @@ public class EditTree {
 	 *             within this tree.
 	 */
 	public String get(int pos, int length) throws IndexOutOfBoundsException {
-		return "";
+		applyPending();
+		if (pos < 0 || length < 0 || length > this.size - pos) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return "";
+		}
+		char[] result = new char[length];
+		getChars(pos, pos + length, result, 0);
+		return new String(result);
 	}
 
 	/**
-	 * This method is provided for you, and should not need to be changed. If
-	 * split() and concatenate() are O(log N) operations as required, delete
-	 * should also be O(log N)
+	 * Copies characters from this tree into dst, like String.getChars, in
+	 * O(srcEnd - srcBegin + log N) time and without allocating anything.
+	 * 
+	 * @param srcBegin
+	 *            position of the first character to copy
+	 * @param srcEnd
+	 *            position after the last character to copy
+	 * @param dst
+	 *            the destination array
+	 * @param dstBegin
+	 *            the start offset in dst
+	 * @throws IndexOutOfBoundsException
+	 *             if srcBegin is negative, srcBegin is greater than srcEnd,
+	 *             srcEnd is greater than size(), dstBegin is negative, or the
+	 *             copied range does not fit into dst at dstBegin
+	 */
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) throws IndexOutOfBoundsException {
+		applyPending();
+		if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > this.size || dstBegin < 0
+				|| dstBegin > dst.length - (srcEnd - srcBegin)) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (srcBegin == srcEnd) {
+			return;
+		}
+		Node current = this.root.get(srcBegin);
+		int end = dstBegin + srcEnd - srcBegin;
+		for (int i = dstBegin; i < end; i++) {
+			dst[i] = current.element;
+			current = current.successor();
+		}
+	}
+
+	/**
+	 * split() and concatenate() are O(log N) operations, so this is O(log N)
+	 * too.
 	 * 
 	 * @param start
 	 *            position of beginning of string to delete
@@ -430,15 +1186,184 @@ public class EditTree {
 	 *             tree.
 	 */
 	public EditTree delete(int start, int length) throws IndexOutOfBoundsException {
-		if (start < 0 || start + length >= this.size())
+		applyPending();
+		if (start < 0 || length < 0 || length > this.size() - start)
 			throw new IndexOutOfBoundsException(
 					(start < 0) ? "negative first argument to delete" : "delete range extends past end of string");
 		EditTree t2 = this.split(start);
 		EditTree t3 = t2.split(length);
+		// Splitting t2 is part of this operation, so its rotations count
+		// here; t2 was new, so they are all it has.
+		this.rotationCount += t2.rotationCount;
+		t2.rotationCount = 0;
 		this.concatenate(t3);
 		return t2;
 	}
 
+	/**
+	 * Replaces a range of this tree with text in O(|text| + log N) time: the
+	 * range is split off, text is built into a balanced tree directly, and
+	 * the pieces are joined back together, so no character of text is
+	 * inserted (or rebalanced for) on its own.
+	 * 
+	 * @param start
+	 *            position of the beginning of the range to replace
+	 * @param length
+	 *            length of the range to replace
+	 * @param text
+	 *            the characters to put in its place
+	 * @return an EditTree containing the replaced characters
+	 * @throws IndexOutOfBoundsException
+	 *             unless the range is in this tree
+	 */
+	public EditTree replace(int start, int length, CharSequence text) throws IndexOutOfBoundsException {
+		applyPending();
+		if (start < 0 || length < 0 || length > this.size() - start) {
+			throw new IndexOutOfBoundsException("replace range extends past end of string");
+		}
+		EditTree replaced = this.split(start);
+		EditTree rest = replaced.split(length);
+		this.rotationCount += replaced.rotationCount;
+		replaced.rotationCount = 0;
+		EditTree added = new EditTree();
+		added.root = build(text, 0, text.length(), NULL_NODE);
+		added.size = text.length();
+		this.concatenate(added);
+		this.concatenate(rest);
+		return replaced;
+	}
+
+	/**
+	 * Applies a batch of edits whose ranges all refer to this tree as it was
+	 * before the batch, in any order. Ranges may touch but not overlap.
+	 * Insertions at the same position end up in the order they were given.
+	 * 
+	 * Depending on which is cheaper, the edits are either applied one by one
+	 * with replace() (or, for edits of a few characters, with add() and
+	 * delete()), left to right with offsets shifted by the edits before them,
+	 * in O(k log N + T) time for k edits inserting T characters; or the
+	 * whole new text is streamed into an array and rebuilt into a balanced
+	 * tree in O(N + T) time.
+	 * 
+	 * @param edits
+	 * @throws IndexOutOfBoundsException
+	 *             if an edit's range extends past the end of this tree
+	 * @throws IllegalArgumentException
+	 *             if two edits overlap
+	 */
+	public void applyEdits(List<Edit> edits) throws IndexOutOfBoundsException, IllegalArgumentException {
+		applyPending();
+		List<Edit> sorted = new ArrayList<Edit>(edits);
+		Collections.sort(sorted, BY_START);
+		int previousEnd = 0;
+		long newSize = this.size;
+		long inserted = 0;
+		long incrementalCost = 0;
+		int levels = this.height() + 2;
+		for (Edit edit : sorted) {
+			if (edit.getEnd() > this.size) {
+				throw new IndexOutOfBoundsException("edit range extends past end of string: " + edit);
+			}
+			if (edit.getStart() < previousEnd) {
+				throw new IllegalArgumentException("overlapping edits: " + edit);
+			}
+			previousEnd = edit.getEnd();
+			inserted += edit.getText().length();
+			newSize += edit.getText().length() - edit.getLength();
+			incrementalCost += editCost(edit, levels);
+		}
+		if (newSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("edits make the tree too large");
+		}
+
+		long rebuildCost = this.size + inserted;
+		if (incrementalCost <= rebuildCost) {
+			int shift = 0;
+			for (Edit edit : sorted) {
+				int start = edit.getStart() + shift;
+				CharSequence text = edit.getText();
+				if (isSmall(edit)) {
+					for (int i = 0; i < edit.getLength(); i++) {
+						delete(start);
+					}
+					for (int i = 0; i < text.length(); i++) {
+						add(text.charAt(i), start + i);
+					}
+				} else {
+					replace(start, edit.getLength(), text);
+				}
+				shift += text.length() - edit.getLength();
+			}
+			return;
+		}
+
+		// Merge the untouched stretches of the old text with the new text.
+		char[] merged = new char[(int) newSize];
+		int from = 0;
+		int to = 0;
+		for (Edit edit : sorted) {
+			getChars(from, edit.getStart(), merged, to);
+			to += edit.getStart() - from;
+			CharSequence text = edit.getText();
+			for (int i = 0; i < text.length(); i++) {
+				merged[to++] = text.charAt(i);
+			}
+			from = edit.getEnd();
+		}
+		getChars(from, this.size, merged, to);
+		this.root = build(CharBuffer.wrap(merged), 0, merged.length, NULL_NODE);
+		this.size = merged.length;
+		this.last = null;
+		this.modCount++;
+	}
+
+	/**
+	 * @return whether edit is cheaper to make one character at a time than
+	 *         with replace()
+	 */
+	private static boolean isSmall(Edit edit) {
+		return edit.getLength() + edit.getText().length() <= REPLACE_COST_PER_LEVEL;
+	}
+
+	/**
+	 * @return the rough number of node visits for making edit on its own in
+	 *         a tree with the given number of levels
+	 */
+	private static long editCost(Edit edit, int levels) {
+		if (isSmall(edit)) {
+			return (long) (edit.getLength() + edit.getText().length()) * levels;
+		}
+		return edit.getText().length() + (long) REPLACE_COST_PER_LEVEL * levels;
+	}
+
+	/**
+	 * Moves a range of this tree elsewhere in O(log N) time, by relinking
+	 * subtrees with split() and concatenate() rather than copying characters.
+	 * 
+	 * @param start
+	 *            position of the beginning of the range to move
+	 * @param length
+	 *            length of the range to move
+	 * @param dest
+	 *            position of the beginning of the range after the move,
+	 *            between 0 and size() - length
+	 * @throws IndexOutOfBoundsException
+	 *             unless the range is in this tree and dest is in range
+	 */
+	public void move(int start, int length, int dest) throws IndexOutOfBoundsException {
+		applyPending();
+		if (start < 0 || length < 0 || length > this.size() - start) {
+			throw new IndexOutOfBoundsException("move range extends past end of string");
+		}
+		if (dest < 0 || dest > this.size() - length) {
+			throw new IndexOutOfBoundsException("move destination out of range");
+		}
+		if (dest == start || length == 0) {
+			return;
+		}
+		this.insert(this.delete(start, length), dest);
+	}
+
 	/**
 	 * Append (in time proportional to the log of the size of the larger tree)
 	 * the contents of the other tree to this one. Other should be made empty
@@ -449,7 +1374,66 @@ public class EditTree {
 	 *             if this == other
 	 */
 	public void concatenate(EditTree other) throws IllegalArgumentException {
+		if (this == other) {
+			throw new IllegalArgumentException("cannot concatenate a tree with itself");
+		}
+		this.applyPending();
+		other.applyPending();
+		if (other.root == NULL_NODE) {
+			return;
+		}
+		int newHeight;
+		if (this.root == NULL_NODE) {
+			newHeight = other.height();
+			this.root = other.root;
+			this.size = other.size;
+			this.last = other.last;
+		} else {
+			// The first node of other joins the two trees together.
+			int newSize = this.size + other.size;
+			Node otherLast = other.last;
+			int otherRotations = other.rotationCount;
+			Node pivot = other.removeFirst();
+			this.rotationCount += other.rotationCount - otherRotations;
+			other.rotationCount = otherRotations;
+			newHeight = join(this.root, this.height(), this.size, pivot, other.root, other.height());
+			this.size = newSize;
+			this.last = (otherLast == pivot) ? null : otherLast;
+		}
+		this.modCount++;
+		this.height = newHeight;
+		this.heightModCount = this.modCount;
+		other.root = NULL_NODE;
+		other.size = 0;
+		other.last = null;
+		other.modCount++;
+	}
 
+	/**
+	 * Moves the contents of other into this tree so that they start at pos,
+	 * in time proportional to the log of the size of the larger tree. Like
+	 * concatenate(), this leaves other empty.
+	 * 
+	 * @param other
+	 * @param pos
+	 *            inorder position of the first character of other
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 * @throws IllegalArgumentException
+	 *             if this == other
+	 */
+	public void insert(EditTree other, int pos) throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (this == other) {
+			throw new IllegalArgumentException("cannot insert a tree into itself");
+		}
+		this.applyPending();
+		other.applyPending();
+		if (pos > this.size() || pos < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		EditTree rest = this.split(pos);
+		this.concatenate(other);
+		this.concatenate(rest);
 	}
 
 	/**
@@ -460,11 +1444,177 @@ public class EditTree {
 	 *            where to split this tree
 	 * @return a new tree containing all of the elements of this tree whose
 	 *         positions are >= position. Their nodes are removed from this
-	 *         tree.
+	 *         tree. Its rotation count is zero; the rotations that built it
+	 *         count in this tree.
 	 * @throws IndexOutOfBoundsException
 	 */
 	public EditTree split(int pos) throws IndexOutOfBoundsException {
-		return null; // replace by a real calculation.
+		applyPending();
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		// Record the path from the root to pos, with the height and size of
+		// each subtree on it. Every node on the path, together with its
+		// subtree on the far side from pos, belongs wholly to one half.
+		int height = this.height();
+		Node[] path = new Node[height + 1];
+		int[] heights = new int[height + 1];
+		int[] sizes = new int[height + 1];
+		boolean[] goesRight = new boolean[height + 1];
+		int depth = 0;
+		Node current = this.root;
+		int subtreeSize = this.size;
+		int offset = pos;
+		while (current != NULL_NODE) {
+			path[depth] = current;
+			heights[depth] = height;
+			sizes[depth] = subtreeSize;
+			goesRight[depth] = offset <= current.rank;
+			if (goesRight[depth]) {
+				height -= (current.balance == Code.RIGHT) ? 2 : 1;
+				subtreeSize = current.rank;
+				current = current.left;
+			} else {
+				offset -= current.rank + 1;
+				height -= (current.balance == Code.LEFT) ? 2 : 1;
+				subtreeSize -= current.rank + 1;
+				current = current.right;
+			}
+			depth++;
+		}
+
+		// Join the pieces bottom-up, each onto the half it belongs to. Each
+		// join costs the height difference of its two trees, and along one
+		// path those differences add up to O(log N).
+		int oldSize = this.size;
+		Node oldLast = this.last;
+		EditTree result = new EditTree();
+		Node leftRoot = NULL_NODE;
+		int leftHeight = -1;
+		Node rightRoot = NULL_NODE;
+		int rightHeight = -1;
+		int rightSize = 0;
+		for (int i = depth - 1; i >= 0; i--) {
+			Node node = path[i];
+			if (goesRight[i]) {
+				Node right = node.right;
+				int rightChildHeight = heights[i] - ((node.balance == Code.LEFT) ? 2 : 1);
+				int newSize = sizes[i] - node.rank + rightSize;
+				right.parent = NULL_NODE;
+				rightHeight = result.join(rightRoot, rightHeight, rightSize, node, right, rightChildHeight);
+				rightRoot = result.root;
+				rightSize = newSize;
+			} else {
+				Node left = node.left;
+				int leftChildHeight = heights[i] - ((node.balance == Code.RIGHT) ? 2 : 1);
+				left.parent = NULL_NODE;
+				leftHeight = this.join(left, leftChildHeight, node.rank, node, leftRoot, leftHeight);
+				leftRoot = this.root;
+			}
+		}
+		this.root = leftRoot;
+		this.size = pos;
+		this.last = null;
+		this.modCount++;
+		this.height = leftHeight;
+		this.heightModCount = this.modCount;
+		result.root = rightRoot;
+		result.size = oldSize - pos;
+		result.last = (pos < oldSize) ? oldLast : null;
+		result.height = rightHeight;
+		result.heightModCount = result.modCount;
+		this.rotationCount += result.rotationCount;
+		result.rotationCount = 0;
+		return result;
+	}
+
+	/**
+	 * Starts batch mode, in which add(char), add(char, int) and delete(int)
+	 * are only recorded, in O(log k) expected time for k runs of recorded
+	 * edits, and the tree itself is left alone. Any other operation, or
+	 * endBatch(), applies everything recorded so far with applyEdits(). When
+	 * there are many edits, that rebuilds the tree from the merged text in
+	 * linear time, without any rotations; otherwise it splices them in one by
+	 * one, and runs of only a few characters are then added and deleted a
+	 * character at a time, rotating just as they would have outside batch
+	 * mode.
+	 * 
+	 * Positions always refer to the text with all earlier edits applied, so
+	 * code that edits the tree does not have to know about batch mode.
+	 */
+	public void beginBatch() {
+		applyPending();
+		if (this.pending == null) {
+			this.pending = new PendingEdits();
+		}
+	}
+
+	/**
+	 * Applies the edits recorded since beginBatch() and leaves batch mode.
+	 */
+	public void endBatch() {
+		applyPending();
+		this.pending = null;
+	}
+
+	/**
+	 * Turns write-combining mode on or off. In that mode, characters added at
+	 * adjacent positions, as typing does, are collected into a run that is
+	 * added to the tree in one go, with add(CharSequence, int), so that
+	 * rebalancing is done once per run instead of once per keystroke. Runs
+	 * of only a few characters are added one by one, which is cheaper.
+	 * Deleting characters of the run just takes them out of it. Any other
+	 * edit, or any read, adds the run to the tree first. Batch mode takes
+	 * precedence over this one while both are on.
+	 * 
+	 * @param enabled
+	 */
+	public void setWriteCombining(boolean enabled) {
+		if (enabled) {
+			if (this.run == null) {
+				this.run = new StringBuilder();
+			}
+		} else {
+			applyPending();
+			this.run = null;
+		}
+	}
+
+	/**
+	 * Adds the write-combining run to the tree and applies the edits recorded
+	 * in batch mode, so that the nodes hold the whole text.
+	 */
+	private void applyPending() {
+		boolean hasRun = this.run != null && this.run.length() > 0;
+		boolean hasBatch = this.pending != null && !this.pending.isEmpty();
+		if (!hasRun && !hasBatch) {
+			return;
+		}
+		// Leave both modes while applying, so that the add() and delete()
+		// calls made on the way really change the tree instead of being
+		// buffered again.
+		StringBuilder typed = this.run;
+		PendingEdits batch = this.pending;
+		this.run = null;
+		this.pending = null;
+		if (hasRun) {
+			String text = typed.toString();
+			typed.setLength(0);
+			if (text.length() <= SHORT_RUN_LENGTH) {
+				// A split and two concatenations cost more than adding a
+				// few characters one by one.
+				for (int i = 0; i < text.length(); i++) {
+					add(text.charAt(i), this.runStart + i);
+				}
+			} else {
+				add(text, this.runStart);
+			}
+		}
+		if (hasBatch) {
+			applyEdits(batch.drain());
+		}
+		this.run = typed;
+		this.pending = batch;
 	}
 
 	/**
@@ -496,14 +1646,502 @@ public class EditTree {
 	 * @return The root of this tree.
 	 */
 	public Node getRoot() {
+		applyPending();
 		return this.root;
 	}
 
+	/**
+	 * @param pos
+	 *            initial position of the cursor, between 0 and size()
+	 * @return a cursor at pos
+	 * @throws IndexOutOfBoundsException
+	 */
+	public Cursor cursor(int pos) throws IndexOutOfBoundsException {
+		applyPending();
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new Cursor(pos);
+	}
+
+	/**
+	 * @return an iterator over the characters of this tree, in order
+	 */
+	public CharIterator charIterator() {
+		return iterator(0);
+	}
+
+	/**
+	 * Finds the character at fromPos in O(log N) time and returns an
+	 * iterator that goes forward from there.
+	 * 
+	 * @param fromPos
+	 *            position of the first character to return, between 0 and
+	 *            size()
+	 * @return an iterator over the characters from fromPos to the end
+	 * @throws IndexOutOfBoundsException
+	 */
+	public CharIterator iterator(int fromPos) throws IndexOutOfBoundsException {
+		applyPending();
+		if (fromPos < 0 || fromPos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new CharIterator((fromPos == this.size) ? NULL_NODE : this.root.get(fromPos), this.size - fromPos,
+				false);
+	}
+
+	/**
+	 * Finds the character just before fromPos in O(log N) time and returns
+	 * an iterator that goes backward from there, as for a backward search
+	 * from a caret at fromPos.
+	 * 
+	 * @param fromPos
+	 *            position just after the first character to return, between
+	 *            0 and size()
+	 * @return an iterator over the characters before fromPos, last first
+	 * @throws IndexOutOfBoundsException
+	 */
+	public CharIterator reverseIterator(int fromPos) throws IndexOutOfBoundsException {
+		applyPending();
+		if (fromPos < 0 || fromPos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new CharIterator((fromPos == 0) ? NULL_NODE : this.root.get(fromPos - 1), fromPos, true);
+	}
+
+	/**
+	 * @return a spliterator over the characters of this tree, which splits at
+	 *         nodes near the middle of its range and high up in the tree,
+	 *         found by rank in O(log N) time
+	 */
+	public Spliterator.OfInt spliterator() {
+		applyPending();
+		return new CharSpliterator(0, this.size);
+	}
+
+	/**
+	 * @return a stream of the characters of this tree. Call parallel() on it
+	 *         to process large trees on several threads without copying
+	 *         them into a String first; the tree must not be edited
+	 *         meanwhile.
+	 */
+	public IntStream chars() {
+		return StreamSupport.intStream(spliterator(), false);
+	}
+
+	/**
+	 * A position in this tree that remembers the node there, so that reads
+	 * and edits close to the previous one start from that node instead of
+	 * from the root. Moving climbs from the remembered node only until it
+	 * reaches a subtree known to contain the target, and then descends, so
+	 * short moves cost time proportional to the height of that subtree rather
+	 * than of the whole tree.
+	 * 
+	 * The position is a gap between characters, from 0 to size(), like a text
+	 * caret. Edits made through other means are allowed; the cursor keeps its
+	 * numeric position (clamped to size()) and finds its node again from the
+	 * root.
+	 */
+	public class Cursor {
+		private int pos;
+		// The node at pos, NULL_NODE at the end of the tree, or null if it
+		// has to be found again from the root.
+		private Node node;
+		// The position of the leftmost node in the subtree rooted at node.
+		private int subtreeStart;
+		private int expectedModCount;
+
+		Cursor(int pos) {
+			this.pos = pos;
+			this.node = null;
+			this.expectedModCount = modCount;
+		}
+
+		/**
+		 * @return the position of this cursor
+		 */
+		public int position() {
+			return this.pos;
+		}
+
+		/**
+		 * @return the character just after this cursor
+		 * @throws IndexOutOfBoundsException
+		 *             if the cursor is at the end of the tree
+		 */
+		public char charAt() throws IndexOutOfBoundsException {
+			Node current = currentNode();
+			if (current == NULL_NODE) {
+				throw new IndexOutOfBoundsException();
+			}
+			return current.element;
+		}
+
+		/**
+		 * Moves this cursor k characters to the right (left if k is negative).
+		 * 
+		 * @param k
+		 * @throws IndexOutOfBoundsException
+		 *             if that would move it outside the tree
+		 */
+		public void moveBy(int k) throws IndexOutOfBoundsException {
+			int target = this.pos + k;
+			if (target < 0 || target > size()) {
+				throw new IndexOutOfBoundsException();
+			}
+			Node current = currentNode();
+			if (current == NULL_NODE || target == size) {
+				// The end of the tree has no node to start from or go to.
+				this.pos = target;
+				this.node = null;
+				return;
+			}
+			int start = this.subtreeStart;
+			// Climb until the subtree at current is known to contain target.
+			// A left child's subtree ends just before its parent; a right
+			// child's ends where its parent's does, which is only known
+			// further up.
+			while (current != root) {
+				Node parent = current.parent;
+				if (current == parent.left) {
+					int parentPos = start + parent.rank;
+					if (target >= start && target < parentPos) {
+						break;
+					}
+				} else {
+					start -= parent.rank + 1;
+				}
+				current = parent;
+			}
+			this.node = current.get(target - start);
+			this.subtreeStart = target - this.node.rank;
+			this.pos = target;
+		}
+
+		/**
+		 * Inserts c at this cursor and moves the cursor past it, as typing
+		 * does. The new node is attached next to the remembered one, so only
+		 * the ranks on the way back up to the root have to be fixed.
+		 * 
+		 * @param c
+		 */
+		public void insert(char c) {
+			Node current = currentNode();
+			if (current == NULL_NODE) {
+				add(c);
+			} else {
+				// The new node becomes the inorder predecessor of current.
+				Node added;
+				if (current.left == NULL_NODE) {
+					current.left = new Node(c, current);
+					added = current.left;
+				} else {
+					Node predecessor = current.left;
+					while (predecessor.right != NULL_NODE) {
+						predecessor = predecessor.right;
+					}
+					predecessor.right = new Node(c, predecessor);
+					added = predecessor.right;
+				}
+				for (Node child = added; child != root; child = child.parent) {
+					if (child == child.parent.left) {
+						child.parent.rank++;
+					}
+				}
+				size++;
+				modCount++;
+				balance(added);
+			}
+			this.pos++;
+			this.expectedModCount = modCount;
+			// current still holds the character after the cursor, but
+			// rotations may have changed its rank.
+			if (current != NULL_NODE) {
+				this.subtreeStart = this.pos - current.rank;
+			}
+		}
+
+		/**
+		 * Deletes the character just after this cursor, as the delete key
+		 * does. The cursor stays where it is.
+		 * 
+		 * @return the deleted character
+		 * @throws IndexOutOfBoundsException
+		 *             if the cursor is at the end of the tree
+		 */
+		public char delete() throws IndexOutOfBoundsException {
+			if (this.pos >= size()) {
+				throw new IndexOutOfBoundsException();
+			}
+			char result = EditTree.this.delete(this.pos);
+			// Deleting with successor replacement moves characters between
+			// nodes, so the remembered node is no longer reliable.
+			this.node = null;
+			this.expectedModCount = modCount;
+			return result;
+		}
+
+		/**
+		 * @return the node at this cursor, or NULL_NODE at the end of the
+		 *         tree, finding it again from the root if necessary
+		 */
+		private Node currentNode() {
+			applyPending();
+			if (this.expectedModCount != modCount) {
+				this.expectedModCount = modCount;
+				this.pos = Math.min(this.pos, size);
+				this.node = null;
+			}
+			if (this.node == null) {
+				if (this.pos == size) {
+					this.node = NULL_NODE;
+				} else {
+					this.node = root.get(this.pos);
+					this.subtreeStart = this.pos - this.node.rank;
+				}
+			}
+			return this.node;
+		}
+	}
+
+	/**
+	 * Iterates over characters without boxing them or keeping a stack: each
+	 * step goes to the inorder successor (or predecessor, going backward)
+	 * through the parent pointers, which is O(1) amortized, so a full scan
+	 * takes O(N) time and O(1) space.
+	 * Like the java.util iterators, it fails fast if the tree is edited
+	 * other than through it.
+	 */
+	public class CharIterator implements PrimitiveIterator.OfInt {
+		private Node next;
+		private int remaining;
+		private final boolean backward;
+		private final int expectedModCount;
+
+		CharIterator(Node next, int remaining, boolean backward) {
+			this.next = next;
+			this.remaining = remaining;
+			this.backward = backward;
+			this.expectedModCount = modCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.remaining > 0;
+		}
+
+		/**
+		 * Same as nextInt(), typed as a char.
+		 * 
+		 * @return the next character
+		 * @throws NoSuchElementException
+		 *             if there are no more characters
+		 * @throws ConcurrentModificationException
+		 *             if the tree was edited since this iterator was created
+		 */
+		public char nextChar() {
+			if (this.expectedModCount != modCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.remaining == 0) {
+				throw new NoSuchElementException();
+			}
+			char result = this.next.element;
+			this.remaining--;
+			if (this.remaining > 0) {
+				this.next = this.backward ? this.next.predecessor() : this.next.successor();
+			}
+			return result;
+		}
+
+		@Override
+		public int nextInt() {
+			return nextChar();
+		}
+	}
+
+	/**
+	 * A range of the tree, read in place. charAt() keeps its own cursor, so
+	 * reading the view in order costs O(log N) for the first character and
+	 * O(1) amortized after that, as EditTree.charAt() does, and so does
+	 * iterating over it.
+	 */
+	public class View implements CharSequence {
+		private final int start;
+		private final int end;
+		private final int expectedModCount;
+		private Cursor finger = null;
+
+		View(int start, int end, int expectedModCount) {
+			this.start = start;
+			this.end = end;
+			this.expectedModCount = expectedModCount;
+		}
+
+		@Override
+		public int length() {
+			return this.end - this.start;
+		}
+
+		@Override
+		public char charAt(int index) throws IndexOutOfBoundsException {
+			checkForComodification();
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (this.finger == null) {
+				this.finger = new Cursor(this.start + index);
+			} else {
+				this.finger.moveBy(this.start + index - this.finger.position());
+			}
+			return this.finger.charAt();
+		}
+
+		/**
+		 * @return a view of part of this view, valid as long as this one is
+		 */
+		@Override
+		public View subSequence(int start, int end) throws IndexOutOfBoundsException {
+			checkForComodification();
+			if (start < 0 || start > end || end > length()) {
+				throw new IndexOutOfBoundsException();
+			}
+			return new View(this.start + start, this.start + end, this.expectedModCount);
+		}
+
+		/**
+		 * @return an iterator over the characters of this view, in order
+		 */
+		public CharIterator iterator() {
+			checkForComodification();
+			return new CharIterator((length() == 0) ? NULL_NODE : root.get(this.start), length(), false);
+		}
+
+		/**
+		 * @return the characters of this view, copied into a String
+		 */
+		@Override
+		public String toString() {
+			checkForComodification();
+			return get(this.start, length());
+		}
+
+		private void checkForComodification() {
+			if (this.expectedModCount != modCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * Covers the positions from pos to end. Splitting costs O(log N), and so
+	 * does looking up the node at pos when traversal starts; after that each
+	 * character costs O(1) amortized.
+	 * Fails fast like CharIterator.
+	 */
+	private class CharSpliterator implements Spliterator.OfInt {
+		// Below this many characters, splitting further costs more than it
+		// saves.
+		private static final int MIN_SPLIT_SIZE = 1 << 12;
+
+		private int pos;
+		private final int end;
+		private Node node; // the node at pos, or null if not looked up yet
+		private final int expectedModCount;
+
+		CharSpliterator(int pos, int end) {
+			this.pos = pos;
+			this.end = end;
+			this.expectedModCount = modCount;
+		}
+
+		@Override
+		public OfInt trySplit() {
+			int length = this.end - this.pos;
+			if (length < MIN_SPLIT_SIZE) {
+				return null;
+			}
+			// Walk down towards the middle and split at the first node that
+			// is in the middle half of the range. The higher that node is,
+			// the more the two halves consist of whole subtrees, so that each
+			// thread mostly walks nodes no other thread touches.
+			int low = this.pos + length / 4;
+			int high = this.end - length / 4;
+			int middle = this.pos + length / 2;
+			Node current = root;
+			int offset = 0;
+			while (offset + current.rank < low || offset + current.rank > high) {
+				if (middle < offset + current.rank) {
+					current = current.left;
+				} else {
+					offset += current.rank + 1;
+					current = current.right;
+				}
+			}
+			CharSpliterator prefix = new CharSpliterator(this.pos, offset + current.rank);
+			prefix.node = this.node;
+			this.pos = offset + current.rank;
+			this.node = current;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (this.pos >= this.end) {
+				return false;
+			}
+			checkForComodification();
+			if (this.node == null) {
+				this.node = root.get(this.pos);
+			}
+			char c = this.node.element;
+			this.pos++;
+			this.node = (this.pos < this.end) ? this.node.successor() : NULL_NODE;
+			action.accept(c);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			if (this.pos >= this.end) {
+				return;
+			}
+			checkForComodification();
+			Node current = (this.node == null) ? root.get(this.pos) : this.node;
+			int remaining = this.end - this.pos;
+			this.pos = this.end;
+			this.node = NULL_NODE;
+			for (int i = 1; i < remaining; i++) {
+				action.accept(current.element);
+				current = current.successor();
+			}
+			action.accept(current.element);
+			checkForComodification();
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.end - this.pos;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+
+		private void checkForComodification() {
+			if (this.expectedModCount != modCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
 	public class InOrderNodeIterator implements Iterator<Node> {
 		Stack<Node> s;
 		char current;
 
 		public InOrderNodeIterator() {
+			applyPending();
 			this.s = new Stack<Node>();
 			this.s.push(root);
 			if (!root.equals(NULL_NODE)) {
@@ -558,6 +2196,7 @@ public class EditTree {
 		Character current;
 
 		public PreOrderNodeIterator() {
+			applyPending();
 			this.s = new Stack<Node>();
 			this.s.push(root);
 
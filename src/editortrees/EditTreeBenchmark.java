@@ -0,0 +1,80 @@
+package editortrees;
+
+import java.util.Random;
+
+// Measures the average time of a random get(int), and of a random add(char,
+// int) followed by a random delete(int), on trees of several sizes, both for
+// EditTree and for ArenaEditTree, which keeps the same tree in primitive
+// arrays. Run with the sizes as arguments, e.g.
+// java -Xmx8g editortrees.EditTreeBenchmark 1000000 10000000 100000000
+// An EditTree takes about 40 bytes per character, so 100M needs a large heap.
+
+public class EditTreeBenchmark {
+
+	private static final int GETS = 10000000;
+	private static final int EDITS = 1000000;
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			args = new String[] { "1000000", "10000000" };
+		}
+		for (String arg : args) {
+			int size = Integer.parseInt(arg);
+			StringBuilder s = new StringBuilder(size);
+			for (int i = 0; i < size; i++) {
+				s.append((char) ('a' + i % 26));
+			}
+			String text = s.toString();
+			s = null;
+			// Precompute the positions so that the timed loops do nothing
+			// but edit and read; the checksum keeps the JIT from dropping the
+			// calls.
+			int[] positions = new int[1 << 20];
+			Random gen = new Random(size);
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = gen.nextInt(size);
+			}
+			long checksum = 0;
+
+			EditTree t = new EditTree(text);
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < GETS; i++) {
+					checksum += t.get(positions[i & (positions.length - 1)]);
+				}
+				report("EditTree", size, round, "get", System.nanoTime() - start, GETS);
+			}
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < EDITS; i++) {
+					t.add('x', positions[i & (positions.length - 1)]);
+					checksum += t.delete(positions[(i + 1) & (positions.length - 1)]);
+				}
+				report("EditTree", size, round, "add+delete", System.nanoTime() - start, EDITS);
+			}
+			t = null;
+
+			ArenaEditTree a = new ArenaEditTree(text);
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < GETS; i++) {
+					checksum += a.get(positions[i & (positions.length - 1)]);
+				}
+				report("ArenaEditTree", size, round, "get", System.nanoTime() - start, GETS);
+			}
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < EDITS; i++) {
+					a.add('x', positions[i & (positions.length - 1)]);
+					checksum += a.delete(positions[(i + 1) & (positions.length - 1)]);
+				}
+				report("ArenaEditTree", size, round, "add+delete", System.nanoTime() - start, EDITS);
+			}
+			System.out.println("(checksum " + checksum + ")");
+		}
+	}
+
+	private static void report(String tree, int size, int round, String operation, long elapsed, int count) {
+		System.out.printf("%s size %d, round %d: %.1f ns/%s%n", tree, size, round, (double) elapsed / count, operation);
+	}
+}
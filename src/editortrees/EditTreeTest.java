@@ -0,0 +1,839 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bulk and performance-oriented operations that go beyond the
+ * milestone test suites.
+ */
+public class EditTreeTest {
+
+	@Test
+	public void testConstructorWithStringShape() {
+		assertEquals("[]", new EditTree("").toDebugString());
+		assertEquals("[b1/, a0=]", new EditTree("ab").toDebugString());
+		assertEquals("[c2=, b1/, a0=, e1/, d0=]", new EditTree("abcde").toDebugString());
+		assertEquals("[d3=, b1=, a0=, c0=, f1=, e0=, g0=]", new EditTree("abcdefg").toDebugString());
+	}
+
+	@Test
+	public void testConstructorWithStringIsBalanced() {
+		StringBuilder s = new StringBuilder();
+		for (int n = 0; n < 300; n++) {
+			EditTree t = new EditTree(s.toString());
+			assertTrue(t.isBalanced());
+			assertEquals(n, t.size());
+			assertEquals(s.toString(), t.toString());
+			assertEquals(0, t.totalRotationCount());
+			s.append((char) ('a' + n % 26));
+		}
+	}
+
+	@Test
+	public void testParallelConstructorMatchesSequential() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 300000; i++) {
+			s.append((char) ('a' + i % 26));
+		}
+		EditTree sequential = new EditTree(s.toString());
+		EditTree parallel = new EditTree(s, 4);
+		assertTrue(parallel.isBalanced());
+		assertEquals(sequential.size(), parallel.size());
+		assertEquals(sequential.height(), parallel.height());
+		assertEquals(s.toString(), parallel.toString());
+	}
+
+	@Test
+	public void testCopyConstructorKeepsShapeAndRotationCount() {
+		EditTree original = new EditTree();
+		for (int i = 0; i < 200; i++) {
+			original.add((char) ('a' + i % 26), (i * 7) % (original.size() + 1));
+		}
+		EditTree copy = new EditTree(original);
+		assertEquals(original.toDebugString(), copy.toDebugString());
+		assertEquals(original.totalRotationCount(), copy.totalRotationCount());
+		assertEquals(original.size(), copy.size());
+		assertTrue(copy.isBalanced());
+
+		// The copy must not share nodes with the original.
+		copy.add('!', 100);
+		assertEquals(200, original.size());
+		assertTrue(original.isBalanced());
+	}
+
+	@Test
+	public void testParallelCopyConstructor() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 300000; i++) {
+			s.append((char) ('a' + i % 26));
+		}
+		EditTree original = new EditTree(s.toString());
+		original.add('!', 1234);
+		EditTree copy = new EditTree(original, 4);
+		assertTrue(copy.isBalanced());
+		assertEquals(original.toDebugString(), copy.toDebugString());
+	}
+
+	@Test
+	public void testGetRangeOnRotatedTree() {
+		EditTree t = new EditTree();
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			int pos = (i * 31) % (t.size() + 1);
+			t.add((char) ('a' + i % 26), pos);
+			analog.insert(pos, (char) ('a' + i % 26));
+		}
+		for (int pos = 0; pos <= t.size(); pos++) {
+			for (int length = 0; pos + length <= t.size(); length += 7) {
+				assertEquals(analog.substring(pos, pos + length), t.get(pos, length));
+			}
+		}
+	}
+
+	@Test
+	public void testGetRangeOutOfBounds() {
+		EditTree t = new EditTree("abcdefgh");
+		int[][] ranges = { { 3, Integer.MAX_VALUE }, { 3, 6 }, { 9, 0 }, { -1, 2 }, { 2, -1 } };
+		for (int[] range : ranges) {
+			try {
+				t.get(range[0], range[1]);
+				fail("Did not throw IndexOutOfBoundsException");
+			} catch (IndexOutOfBoundsException e) {
+				// success
+			}
+		}
+		assertEquals("", t.get(8, 0));
+	}
+
+	@Test
+	public void testGetChars() {
+		EditTree t = new EditTree("abcdefghijklmnopqrstuvwxyz");
+		t.add('!', 13);
+		char[] dst = "0123456789".toCharArray();
+		t.getChars(11, 16, dst, 2);
+		assertEquals("01lm!no789", new String(dst));
+		t.getChars(27, 27, dst, 10);
+		assertEquals("01lm!no789", new String(dst));
+		try {
+			t.getChars(20, 27, dst, 4);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		try {
+			t.getChars(5, 4, dst, 0);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testAppendAfterOtherEdits() {
+		EditTree t = new EditTree("bcd");
+		t.add('e');
+		t.add('a', 0);
+		t.add('f', 5);
+		t.add('g');
+		for (char c = 'h'; c <= 'z'; c++) {
+			t.add(c);
+		}
+		assertEquals("abcdefghijklmnopqrstuvwxyz", t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testCursorTypingAndMoving() {
+		EditTree t = new EditTree("0123456789");
+		EditTree.Cursor cursor = t.cursor(5);
+		assertEquals('5', cursor.charAt());
+		for (char c = 'a'; c <= 'z'; c++) {
+			cursor.insert(c);
+		}
+		assertEquals("01234abcdefghijklmnopqrstuvwxyz56789", t.toString());
+		assertTrue(t.isBalanced());
+		assertEquals(31, cursor.position());
+		assertEquals('5', cursor.charAt());
+
+		String str = t.toString();
+		int[] moves = { -1, -3, 7, -20, 13, 2, -29, 35, -35, 36, -1 };
+		int pos = cursor.position();
+		for (int k : moves) {
+			cursor.moveBy(k);
+			pos += k;
+			assertEquals(pos, cursor.position());
+			if (pos < str.length()) {
+				assertEquals(str.charAt(pos), cursor.charAt());
+			}
+		}
+	}
+
+	@Test
+	public void testCursorAtEndAndAfterOtherEdits() {
+		EditTree t = new EditTree();
+		EditTree.Cursor cursor = t.cursor(0);
+		cursor.insert('b');
+		cursor.insert('c');
+		cursor.moveBy(-2);
+		cursor.insert('a');
+		assertEquals("abc", t.toString());
+		assertEquals('b', cursor.charAt());
+
+		// An edit made behind the cursor's back keeps its position.
+		t.add('x', 0);
+		assertEquals('a', cursor.charAt());
+		try {
+			cursor.moveBy(4);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testDeleteRange() {
+		String str = "abcdefghijklmnopqrstuvwxyz";
+		for (int start = 0; start <= str.length(); start++) {
+			for (int length = 0; start + length <= str.length(); length++) {
+				EditTree t = new EditTree(str);
+				EditTree deleted = t.delete(start, length);
+				assertEquals(str.substring(start, start + length), deleted.toString());
+				assertEquals(str.substring(0, start) + str.substring(start + length), t.toString());
+				assertTrue(t.isBalanced());
+				assertTrue(deleted.isBalanced());
+			}
+		}
+	}
+
+	@Test
+	public void testDeleteAndMoveOutOfRangeLeaveTreeAlone() {
+		EditTree t = new EditTree("abcdefgh");
+		try {
+			t.delete(3, Integer.MAX_VALUE);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		assertEquals("abcdefgh", t.toString());
+		try {
+			t.move(3, Integer.MAX_VALUE, 0);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		assertEquals("abcdefgh", t.toString());
+	}
+
+	@Test
+	public void testCursorDelete() {
+		EditTree t = new EditTree("abcdefghij");
+		EditTree.Cursor cursor = t.cursor(3);
+		assertEquals('d', cursor.delete());
+		assertEquals('e', cursor.delete());
+		assertEquals('f', cursor.charAt());
+		cursor.moveBy(-3);
+		assertEquals('a', cursor.delete());
+		assertEquals("bcfghij", t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testAddString() {
+		String str = "0123456789";
+		for (int pos = 0; pos <= str.length(); pos++) {
+			for (int length = 0; length < 40; length += 3) {
+				EditTree t = new EditTree();
+				for (int i = 0; i < str.length(); i++) {
+					t.add(str.charAt(i));
+				}
+				StringBuilder s = new StringBuilder();
+				for (int i = 0; i < length; i++) {
+					s.append((char) ('a' + i % 26));
+				}
+				t.add(s, pos);
+				assertEquals(str.substring(0, pos) + s + str.substring(pos), t.toString());
+				assertTrue(t.isBalanced());
+				t.add('!');
+				assertEquals(str.length() + length + 1, t.size());
+			}
+		}
+	}
+
+	@Test
+	public void testInsertTree() {
+		EditTree source = new EditTree("the quick brown fox");
+		EditTree target = new EditTree("jumps over the lazy dog");
+		EditTree block = source.delete(4, 6);
+		assertEquals("the brown fox", source.toString());
+		target.insert(block, 10);
+		assertEquals("jumps overquick  the lazy dog", target.toString());
+		assertEquals("", block.toString());
+		assertEquals(0, block.size());
+		assertTrue(target.isBalanced());
+		try {
+			target.insert(target, 0);
+			fail("Did not throw IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testMove() {
+		String str = "abcdefghij";
+		for (int start = 0; start <= str.length(); start++) {
+			for (int length = 0; start + length <= str.length(); length++) {
+				String block = str.substring(start, start + length);
+				String rest = str.substring(0, start) + str.substring(start + length);
+				for (int dest = 0; dest <= rest.length(); dest++) {
+					EditTree t = new EditTree(str);
+					t.move(start, length, dest);
+					assertEquals(rest.substring(0, dest) + block + rest.substring(dest), t.toString());
+					assertTrue(t.isBalanced());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReplace() {
+		String str = "abcdefghij";
+		String[] texts = { "", "X", "XYZ", "0123456789ABCDEFGHIJ" };
+		for (int start = 0; start <= str.length(); start++) {
+			for (int length = 0; start + length <= str.length(); length++) {
+				for (String text : texts) {
+					EditTree t = new EditTree(str);
+					EditTree replaced = t.replace(start, length, text);
+					assertEquals(str.substring(start, start + length), replaced.toString());
+					assertEquals(str.substring(0, start) + text + str.substring(start + length), t.toString());
+					assertTrue(t.isBalanced());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReplaceOutOfRangeLeavesTreeAlone() {
+		EditTree t = new EditTree("abcdefgh");
+		int[][] ranges = { { 3, Integer.MAX_VALUE }, { 3, 6 }, { 9, 0 }, { -1, 2 }, { 2, -1 } };
+		for (int[] range : ranges) {
+			try {
+				t.replace(range[0], range[1], "X");
+				fail("Did not throw IndexOutOfBoundsException");
+			} catch (IndexOutOfBoundsException e) {
+				// success
+			}
+			assertEquals("abcdefgh", t.toString());
+		}
+	}
+
+	@Test
+	public void testApplyEdits() {
+		List<Edit> edits = new ArrayList<Edit>();
+		edits.add(new Edit(10, 3, "X"));
+		edits.add(new Edit(0, 0, "<"));
+		edits.add(new Edit(4, 2, ""));
+		edits.add(new Edit(26, 0, ">"));
+		edits.add(new Edit(0, 0, "<"));
+		edits.add(new Edit(13, 0, "!"));
+		edits.add(new Edit(20, 0, "0123456789"));
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			padding.append('.');
+		}
+
+		// A small batch on a large tree is applied edit by edit...
+		EditTree t = new EditTree("abcdefghijklmnopqrstuvwxyz" + padding);
+		t.applyEdits(edits);
+		assertEquals("<<abcdghijX!nopqrst0123456789uvwxyz>" + padding, t.toString());
+		assertTrue(t.isBalanced());
+
+		// ...and a large batch by rebuilding; the result is the same.
+		List<Edit> many = new ArrayList<Edit>();
+		for (int i = 0; i < 26; i++) {
+			many.add(new Edit(i, 1, String.valueOf((char) ('A' + i))));
+		}
+		t = new EditTree("abcdefghijklmnopqrstuvwxyz");
+		t.applyEdits(many);
+		assertEquals("ABCDEFGHIJKLMNOPQRSTUVWXYZ", t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testApplyEditsAcceptsTouchingRangesInAnyOrder() {
+		List<Edit> edits = new ArrayList<Edit>();
+		edits.add(new Edit(2, 2, "XY"));
+		edits.add(new Edit(2, 0, "<"));
+		edits.add(new Edit(2, 0, "["));
+		EditTree t = new EditTree("abcdef");
+		t.applyEdits(edits);
+		assertEquals("ab<[XYef", t.toString());
+		Collections.reverse(edits);
+		t = new EditTree("abcdef");
+		t.applyEdits(edits);
+		assertEquals("ab[<XYef", t.toString());
+	}
+
+	@Test
+	public void testEditRejectsBadArguments() {
+		int[][] ranges = { { -1, 0 }, { 0, -1 }, { 3, Integer.MAX_VALUE }, { Integer.MAX_VALUE, 1 } };
+		for (int[] range : ranges) {
+			try {
+				new Edit(range[0], range[1], "x");
+				fail("Did not throw IllegalArgumentException");
+			} catch (IllegalArgumentException e) {
+				// success
+			}
+		}
+		try {
+			new Edit(0, 0, null);
+			fail("Did not throw IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+		assertEquals(Integer.MAX_VALUE, new Edit(Integer.MAX_VALUE - 3, 3, "").getEnd());
+	}
+
+	@Test
+	public void testApplyEditsRejectsOverlap() {
+		EditTree t = new EditTree("abcdef");
+		List<Edit> edits = new ArrayList<Edit>();
+		edits.add(new Edit(1, 3, "x"));
+		edits.add(new Edit(3, 1, "y"));
+		try {
+			t.applyEdits(edits);
+			fail("Did not throw IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+		assertEquals("abcdef", t.toString());
+	}
+
+	@Test
+	public void testBatchMatchesImmediateEdits() {
+		Random gen = new Random(18);
+		for (int round = 0; round < 20; round++) {
+			EditTree t = new EditTree("the quick brown fox jumps over the lazy dog");
+			StringBuilder analog = new StringBuilder(t.toString());
+			t.beginBatch();
+			// Mostly nearby edits, as a formatter makes, with some jumps.
+			int pos = 0;
+			for (int i = 0; i < 500; i++) {
+				if (gen.nextInt(10) == 0) {
+					pos = gen.nextInt(analog.length() + 1);
+				} else {
+					pos = Math.max(0, Math.min(analog.length(), pos + gen.nextInt(5) - 2));
+				}
+				if (pos < analog.length() && gen.nextInt(3) == 0) {
+					assertEquals(analog.charAt(pos), t.delete(pos));
+					analog.deleteCharAt(pos);
+				} else {
+					char c = (char) ('a' + gen.nextInt(26));
+					t.add(c, pos);
+					analog.insert(pos, c);
+				}
+				assertEquals(analog.length(), t.size());
+				if (i % 100 == 99) {
+					// Reading in the middle of a batch applies what is pending.
+					assertEquals(analog.toString(), t.toString());
+				}
+			}
+			t.add('!');
+			analog.append('!');
+			t.endBatch();
+			assertEquals(analog.toString(), t.toString());
+			assertTrue(t.isBalanced());
+		}
+	}
+
+	@Test
+	public void testBatchScatteredEdits() {
+		// Edits all over the text leave many separate runs pending at once.
+		Random gen = new Random(180);
+		char[] chars = new char[2000];
+		Arrays.fill(chars, '.');
+		EditTree t = new EditTree(new String(chars));
+		StringBuilder analog = new StringBuilder(t.toString());
+		t.beginBatch();
+		for (int i = 0; i < 3000; i++) {
+			int pos = gen.nextInt(analog.length() + 1);
+			if (pos < analog.length() && gen.nextBoolean()) {
+				assertEquals(analog.charAt(pos), t.delete(pos));
+				analog.deleteCharAt(pos);
+			} else {
+				char c = (char) ('a' + gen.nextInt(26));
+				t.add(c, pos);
+				analog.insert(pos, c);
+			}
+			assertEquals(analog.length(), t.size());
+		}
+		t.endBatch();
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testBatchBoundsAndEmptyTree() {
+		EditTree t = new EditTree();
+		t.beginBatch();
+		try {
+			t.delete(0);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		t.add('b');
+		t.add('a', 0);
+		t.add('c', 2);
+		try {
+			t.add('x', 4);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+		assertEquals(3, t.size());
+		assertEquals('b', t.get(1));
+		assertEquals('a', t.delete(0));
+		t.add('d');
+		t.endBatch();
+		assertEquals("bcd", t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testWriteCombiningTyping() {
+		Random gen = new Random(19);
+		EditTree t = new EditTree("the quick brown fox jumps over the lazy dog");
+		StringBuilder analog = new StringBuilder(t.toString());
+		t.setWriteCombining(true);
+		int pos = 10;
+		for (int i = 0; i < 2000; i++) {
+			int action = gen.nextInt(20);
+			if (action == 0) {
+				pos = gen.nextInt(analog.length() + 1);
+			} else if (action < 4 && pos > 0) {
+				pos--;
+				assertEquals(analog.charAt(pos), t.delete(pos));
+				analog.deleteCharAt(pos);
+			} else if (action == 4) {
+				// A read in the middle of typing adds the run to the tree.
+				assertEquals(analog.charAt(analog.length() / 2), t.get(analog.length() / 2));
+			} else {
+				char c = (char) ('a' + gen.nextInt(26));
+				t.add(c, pos);
+				analog.insert(pos, c);
+				pos++;
+			}
+			assertEquals(analog.length(), t.size());
+		}
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.isBalanced());
+		t.setWriteCombining(false);
+		t.add('!');
+		assertEquals(analog.toString() + "!", t.toString());
+	}
+
+	@Test
+	public void testWriteCombiningSavesRotations() {
+		EditTree combined = new EditTree("0123456789");
+		EditTree plain = new EditTree("0123456789");
+		combined.setWriteCombining(true);
+		for (int i = 0; i < 1000; i++) {
+			combined.add((char) ('a' + i % 26), 5 + i);
+			plain.add((char) ('a' + i % 26), 5 + i);
+		}
+		assertEquals(plain.toString(), combined.toString());
+		assertTrue(combined.isBalanced());
+		assertTrue(combined.totalRotationCount() < plain.totalRotationCount() / 10);
+	}
+
+	@Test
+	public void testCachedHeightFollowsEdits() {
+		Random gen = new Random(20);
+		EditTree t = new EditTree("abcdefghijklmnopqrstuvwxyz");
+		for (int i = 0; i < 3000; i++) {
+			int action = gen.nextInt(4);
+			if (action == 0 && t.size() > 0) {
+				t.delete(gen.nextInt(t.size()));
+			} else if (action == 1) {
+				EditTree rest = t.split(gen.nextInt(t.size() + 1));
+				assertEquals(rest.debugHeight(), rest.height());
+				rest.add('!', gen.nextInt(rest.size() + 1));
+				assertEquals(t.debugHeight(), t.height());
+				t.concatenate(rest);
+			} else {
+				t.add((char) ('a' + gen.nextInt(26)), gen.nextInt(t.size() + 1));
+			}
+			assertEquals(t.debugHeight(), t.height());
+		}
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testCharIterator() {
+		EditTree t = new EditTree();
+		assertTrue(!t.charIterator().hasNext());
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			int pos = (i * 37) % (t.size() + 1);
+			t.add((char) ('a' + i % 26), pos);
+			analog.insert(pos, (char) ('a' + i % 26));
+		}
+		EditTree.CharIterator itr = t.charIterator();
+		for (int i = 0; i < analog.length(); i++) {
+			assertTrue(itr.hasNext());
+			assertEquals(analog.charAt(i), itr.nextChar());
+		}
+		assertTrue(!itr.hasNext());
+		PrimitiveIterator.OfInt ints = t.charIterator();
+		assertEquals(analog.charAt(0), ints.nextInt());
+		assertEquals(Integer.valueOf(analog.charAt(1)), ints.next());
+		try {
+			itr.nextChar();
+			fail("Did not throw NoSuchElementException");
+		} catch (NoSuchElementException e) {
+			// success
+		}
+
+		itr = t.charIterator();
+		itr.nextChar();
+		t.add('!', 3);
+		try {
+			itr.nextChar();
+			fail("Did not throw ConcurrentModificationException");
+		} catch (ConcurrentModificationException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testPositionedIterators() {
+		EditTree t = new EditTree();
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			int pos = (i * 53) % (t.size() + 1);
+			t.add((char) ('a' + i % 26), pos);
+			analog.insert(pos, (char) ('a' + i % 26));
+		}
+		for (int from = 0; from <= analog.length(); from++) {
+			StringBuilder forward = new StringBuilder();
+			for (EditTree.CharIterator itr = t.iterator(from); itr.hasNext();) {
+				forward.append(itr.nextChar());
+			}
+			assertEquals(analog.substring(from), forward.toString());
+			StringBuilder backward = new StringBuilder();
+			for (EditTree.CharIterator itr = t.reverseIterator(from); itr.hasNext();) {
+				backward.append(itr.nextChar());
+			}
+			assertEquals(analog.substring(0, from), backward.reverse().toString());
+		}
+		try {
+			t.reverseIterator(201);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testSpliteratorAndParallelStream() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			s.append((char) ('a' + (i * 7) % 26));
+		}
+		EditTree t = new EditTree(s.toString());
+		t.add('!', 5000);
+		s.insert(5000, '!');
+		String str = s.toString();
+
+		assertEquals(str.chars().sum(), t.chars().parallel().sum());
+		assertEquals(str.length(), t.chars().parallel().count());
+		final StringBuilder ordered = new StringBuilder();
+		t.chars().parallel().forEachOrdered(new IntConsumer() {
+			@Override
+			public void accept(int c) {
+				ordered.append((char) c);
+			}
+		});
+		assertEquals(str, ordered.toString());
+
+		// Splits cover the whole tree, in order, and report exact sizes.
+		Spliterator.OfInt whole = t.spliterator();
+		assertTrue(whole.hasCharacteristics(Spliterator.SUBSIZED));
+		Spliterator.OfInt prefix = whole.trySplit();
+		assertEquals(str.length(), prefix.estimateSize() + whole.estimateSize());
+		final StringBuilder joined = new StringBuilder();
+		IntConsumer append = new IntConsumer() {
+			@Override
+			public void accept(int c) {
+				joined.append((char) c);
+			}
+		};
+		prefix.tryAdvance(append);
+		prefix.forEachRemaining(append);
+		whole.forEachRemaining(append);
+		assertEquals(str, joined.toString());
+	}
+
+	@Test
+	public void testCharSequence() {
+		EditTree t = new EditTree();
+		StringBuilder analog = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			int pos = (i * 41) % (t.size() + 1);
+			char c = (i % 10 == 0) ? ' ' : (char) ('a' + i % 26);
+			t.add(c, pos);
+			analog.insert(pos, c);
+		}
+		assertEquals(analog.length(), t.length());
+		for (int i = 0; i < analog.length(); i++) {
+			assertEquals(analog.charAt(i), t.charAt(i));
+		}
+		for (int i = analog.length() - 1; i >= 0; i -= 7) {
+			assertEquals(analog.charAt(i), t.charAt(i));
+		}
+		assertEquals(analog.substring(17, 123), t.subSequence(17, 123).toString());
+
+		// The remembered position survives edits.
+		t.charAt(150);
+		t.delete(0, 200);
+		analog.delete(0, 200);
+		assertEquals(analog.charAt(50), t.charAt(50));
+
+		Matcher m = Pattern.compile("[a-z]+").matcher(analog);
+		Matcher n = Pattern.compile("[a-z]+").matcher(t);
+		while (m.find()) {
+			assertTrue(n.find());
+			assertEquals(m.group(), n.group());
+		}
+		assertTrue(!n.find());
+	}
+
+	@Test
+	public void testViews() {
+		String str = "the quick brown fox jumps over the lazy dog";
+		EditTree t = new EditTree(str);
+		EditTree.View view = t.view(4, 19);
+		assertEquals("quick brown fox", view.toString());
+		assertEquals(15, view.length());
+		assertEquals('b', view.charAt(6));
+		assertEquals('q', view.charAt(0));
+
+		EditTree.View inner = view.subSequence(6, 11);
+		assertEquals("brown", inner.toString());
+		StringBuilder iterated = new StringBuilder();
+		for (EditTree.CharIterator itr = inner.iterator(); itr.hasNext();) {
+			iterated.append(itr.nextChar());
+		}
+		assertEquals("brown", iterated.toString());
+		assertEquals("", view.subSequence(3, 3).toString());
+		assertTrue(!view.subSequence(3, 3).iterator().hasNext());
+		assertTrue(Pattern.compile("o\\w").matcher(t.subSequence(0, t.length())).find());
+
+		try {
+			view.charAt(15);
+			fail("Did not throw IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// success
+		}
+
+		t.add('!', 0);
+		try {
+			inner.charAt(0);
+			fail("Did not throw ConcurrentModificationException");
+		} catch (ConcurrentModificationException e) {
+			// success
+		}
+		try {
+			view.toString();
+			fail("Did not throw ConcurrentModificationException");
+		} catch (ConcurrentModificationException e) {
+			// success
+		}
+	}
+
+	@Test
+	public void testBatchAndWriteCombiningTogether() {
+		EditTree t = new EditTree("abcdef");
+		t.setWriteCombining(true);
+		t.beginBatch();
+		t.add('X', 2);
+		assertEquals(7, t.size());
+		assertEquals('X', t.get(2));
+		assertEquals('X', t.charAt(2));
+		assertEquals("abXcdef", t.toString());
+
+		Random gen = new Random(1019);
+		StringBuilder analog = new StringBuilder(t.toString());
+		int pos = 3;
+		for (int i = 0; i < 3000; i++) {
+			int action = gen.nextInt(40);
+			if (action == 0) {
+				t.endBatch();
+			} else if (action == 1) {
+				t.beginBatch();
+			} else if (action == 2) {
+				t.setWriteCombining(gen.nextBoolean());
+			} else if (action == 3) {
+				pos = gen.nextInt(analog.length() + 1);
+			} else if (action == 4) {
+				int at = gen.nextInt(analog.length());
+				assertEquals(analog.charAt(at), t.get(at));
+			} else if (action < 12 && pos > 0) {
+				pos--;
+				assertEquals(analog.charAt(pos), t.delete(pos));
+				analog.deleteCharAt(pos);
+			} else {
+				char c = (char) ('a' + gen.nextInt(26));
+				t.add(c, pos);
+				analog.insert(pos, c);
+				pos++;
+			}
+			assertEquals(analog.length(), t.size());
+		}
+		t.endBatch();
+		t.setWriteCombining(false);
+		assertEquals(analog.toString(), t.toString());
+		assertTrue(t.isBalanced());
+	}
+
+	@Test
+	public void testSplitAndConcatenateRotationsCountInCallingTree() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			s.append((char) ('a' + i % 26));
+		}
+		Random gen = new Random(11);
+		EditTree t = new EditTree(s.toString());
+		int throwaway = 0;
+		for (int i = 0; i < 200; i++) {
+			int start = gen.nextInt(t.size() - 50);
+			EditTree replaced = t.replace(start, 1 + gen.nextInt(49), "0123456789");
+			throwaway += replaced.totalRotationCount();
+			EditTree rest = t.split(gen.nextInt(t.size() + 1));
+			throwaway += rest.totalRotationCount();
+			t.concatenate(rest);
+			throwaway += rest.totalRotationCount();
+		}
+		assertEquals(0, throwaway);
+		assertTrue(t.totalRotationCount() > 0);
+		assertTrue(t.isBalanced());
+	}
+}
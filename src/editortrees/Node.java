@@ -66,26 +66,27 @@ public class Node {
 
 	// For the following methods, you should fill in the details so that they
 	// work correctly
+	// The balance codes say which side is taller, so following them down
+	// finds the height without visiting the rest of the subtree.
 	public int height() {
-		if (this == EditTree.NULL_NODE)
-			return -1;
-		switch (this.balance) {
-		case LEFT:
-			return this.left.height() + 1;
-		default:
-			return this.right.height() + 1;
+		int height = -1;
+		for (Node current = this; current != EditTree.NULL_NODE; height++) {
+			current = (current.balance == Code.LEFT) ? current.left : current.right;
 		}
+		return height;
 	}
 
 	public Node get(int pos) {
-		if (pos < this.rank) {
-			return this.left.get(pos);
-		} else if (pos == this.rank) {
-			return this;
-		} else {
-			return this.right.get(pos - this.rank - 1);
+		Node current = this;
+		while (pos != current.rank) {
+			if (pos < current.rank) {
+				current = current.left;
+			} else {
+				pos -= current.rank + 1;
+				current = current.right;
+			}
 		}
-
+		return current;
 	}
 
 	/**
@@ -96,25 +97,68 @@ public class Node {
 	 * @return The node inserted on the bottom
 	 */
 	public Node add(char c, int pos) {
-
-		if (pos <= this.rank) {
-			this.rank++;
-			if (this.left == EditTree.NULL_NODE) {
-				this.left = new Node(c, this);
-				return this.left;
-			} else {
-				return this.left.add(c, pos);
-			}
-		} else {
-			if (this.right == EditTree.NULL_NODE) {
-				this.right = new Node(c, this);
-				return this.right;
+		Node current = this;
+		while (true) {
+			if (pos <= current.rank) {
+				current.rank++;
+				if (current.left == EditTree.NULL_NODE) {
+					current.left = new Node(c, current);
+					return current.left;
+				}
+				current = current.left;
 			} else {
-				return this.right.add(c, pos - this.rank - 1);
+				pos -= current.rank + 1;
+				if (current.right == EditTree.NULL_NODE) {
+					current.right = new Node(c, current);
+					return current.right;
+				}
+				current = current.right;
 			}
 		}
 	}
 	
+	/**
+	 * Walks to the next node in an inorder traversal using parent pointers.
+	 * Stepping through k consecutive nodes this way costs O(k + log N) in
+	 * total, since every edge is crossed at most twice.
+	 * 
+	 * @return the inorder successor, or NULL_NODE if this is the last node
+	 */
+	public Node successor() {
+		Node current = this;
+		if (current.right != EditTree.NULL_NODE) {
+			current = current.right;
+			while (current.left != EditTree.NULL_NODE) {
+				current = current.left;
+			}
+			return current;
+		}
+		while (current.parent != EditTree.NULL_NODE && current == current.parent.right) {
+			current = current.parent;
+		}
+		return current.parent;
+	}
+
+	/**
+	 * The mirror image of successor().
+	 * 
+	 * @return the inorder predecessor, or NULL_NODE if this is the first node
+	 */
+	public Node predecessor() {
+		Node current = this;
+		if (current.left != EditTree.NULL_NODE) {
+			current = current.left;
+			while (current.right != EditTree.NULL_NODE) {
+				current = current.right;
+			}
+			return current;
+		}
+		while (current.parent != EditTree.NULL_NODE && current == current.parent.left) {
+			current = current.parent;
+		}
+		return current.parent;
+	}
+
 	public boolean isRight() {
 		return this == this.parent.right;
 	}
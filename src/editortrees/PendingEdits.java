@@ -0,0 +1,257 @@
+package editortrees;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Single-character inserts and deletes that an EditTree has accepted but not
+// yet applied to its nodes. Positions given to add() and delete() refer to
+// the document with all pending edits applied; internally the edits are kept
+// as pieces that each replace a range of the unmodified tree with some text,
+// sorted by position and never touching, which is exactly the form that
+// EditTree.applyEdits() takes.
+
+class PendingEdits {
+
+	// The pieces are kept in a treap ordered by position, in which every
+	// piece also holds the total size change made by the pieces in its
+	// subtree. Where a piece's text starts in the document is its start in
+	// the unmodified tree shifted by the change of all pieces before it, so
+	// finding the piece at a document position is one descent, and so is
+	// adding or removing a piece: O(log k) expected for k pieces, wherever
+	// the edits are.
+	private Piece root = null;
+	private final Random priorities = new Random();
+	// The two halves from the last call to split().
+	private Piece before;
+	private Piece after;
+
+	private class Piece {
+		int start; // range of the unmodified tree that this piece replaces
+		int length;
+		StringBuilder text = new StringBuilder();
+		final int priority = PendingEdits.this.priorities.nextInt();
+		Piece left = null;
+		Piece right = null;
+		int subtreeChange = 0;
+
+		Piece(int start, int length) {
+			this.start = start;
+			this.length = length;
+		}
+
+		int change() {
+			return this.text.length() - this.length;
+		}
+	}
+
+	boolean isEmpty() {
+		return this.root == null;
+	}
+
+	/**
+	 * @return how much longer the document is than the unmodified tree
+	 */
+	int sizeChange() {
+		return subtreeChange(this.root);
+	}
+
+	/**
+	 * Inserts c so that it ends up at pos.
+	 */
+	void add(char c, int pos) {
+		split(this.root, pos, 0);
+		Piece left = this.before;
+		Piece right = this.after;
+		int delta = subtreeChange(left);
+		Piece next = first(right);
+		if (next != null && next.start + delta <= pos) {
+			right = removeFirst(right);
+			next.text.insert(pos - next.start - delta, c);
+		} else {
+			// pos is strictly between two pieces, over unmodified characters.
+			next = new Piece(pos - delta, 0);
+			next.text.append(c);
+		}
+		this.root = merge(left, merge(update(next), right));
+	}
+
+	/**
+	 * Deletes the character at pos.
+	 *
+	 * @param root
+	 *            root of the unmodified tree, for looking up characters that
+	 *            no piece covers
+	 * @return the deleted character
+	 */
+	char delete(int pos, Node root) {
+		split(this.root, pos + 1, 0);
+		Piece left = this.before;
+		Piece right = this.after;
+		int delta = subtreeChange(left);
+		Piece next = first(right);
+		if (next != null && next.start + delta <= pos) {
+			right = removeFirst(right);
+			int offset = pos - next.start - delta;
+			char result = next.text.charAt(offset);
+			next.text.deleteCharAt(offset);
+			if (next.length > 0 || next.text.length() > 0) {
+				right = merge(update(next), right);
+			}
+			this.root = merge(left, right);
+			return result;
+		}
+
+		// The character is one of the unmodified tree's. Grow a neighboring
+		// piece over it if there is one right next to it, so that pieces
+		// never touch.
+		int original = pos - delta;
+		char result = root.get(original).element;
+		Piece previous = last(left);
+		boolean joinsPrevious = previous != null && previous.start + previous.length == original;
+		boolean joinsNext = next != null && next.start == original + 1;
+		Piece piece;
+		if (joinsPrevious) {
+			left = removeLast(left);
+			piece = previous;
+			piece.length++;
+			if (joinsNext) {
+				right = removeFirst(right);
+				piece.text.append(next.text);
+				piece.length += next.length;
+			}
+		} else if (joinsNext) {
+			right = removeFirst(right);
+			piece = next;
+			piece.start--;
+			piece.length++;
+		} else {
+			piece = new Piece(original, 1);
+		}
+		this.root = merge(left, merge(update(piece), right));
+		return result;
+	}
+
+	/**
+	 * Empties this and returns what it held.
+	 *
+	 * @return the pending edits, in terms of the unmodified tree
+	 */
+	List<Edit> drain() {
+		List<Edit> result = new ArrayList<Edit>();
+		collect(this.root, result);
+		this.root = null;
+		return result;
+	}
+
+	private static void collect(Piece t, List<Edit> result) {
+		while (t != null) {
+			collect(t.left, result);
+			result.add(new Edit(t.start, t.length, t.text));
+			t = t.right;
+		}
+	}
+
+	/**
+	 * Splits t into before, the pieces whose text ends before pos in the
+	 * document, and after, the rest.
+	 *
+	 * @param delta
+	 *            the total size change of the pieces before t
+	 */
+	private void split(Piece t, int pos, int delta) {
+		if (t == null) {
+			this.before = null;
+			this.after = null;
+			return;
+		}
+		int start = t.start + delta + subtreeChange(t.left);
+		if (start + t.text.length() < pos) {
+			split(t.right, pos, delta + subtreeChange(t.left) + t.change());
+			t.right = this.before;
+			this.before = update(t);
+		} else {
+			split(t.left, pos, delta);
+			t.left = this.after;
+			this.after = update(t);
+		}
+	}
+
+	/**
+	 * @return the pieces of a followed by those of b, which must all come
+	 *         after a's
+	 */
+	private static Piece merge(Piece a, Piece b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			return update(a);
+		}
+		b.left = merge(a, b.left);
+		return update(b);
+	}
+
+	private static Piece first(Piece t) {
+		if (t == null) {
+			return null;
+		}
+		while (t.left != null) {
+			t = t.left;
+		}
+		return t;
+	}
+
+	private static Piece last(Piece t) {
+		if (t == null) {
+			return null;
+		}
+		while (t.right != null) {
+			t = t.right;
+		}
+		return t;
+	}
+
+	/**
+	 * Unlinks the first piece of t.
+	 *
+	 * @return what is left of t
+	 */
+	private static Piece removeFirst(Piece t) {
+		if (t.left == null) {
+			Piece rest = t.right;
+			t.right = null;
+			return rest;
+		}
+		t.left = removeFirst(t.left);
+		return update(t);
+	}
+
+	/**
+	 * Unlinks the last piece of t.
+	 *
+	 * @return what is left of t
+	 */
+	private static Piece removeLast(Piece t) {
+		if (t.right == null) {
+			Piece rest = t.left;
+			t.left = null;
+			return rest;
+		}
+		t.right = removeLast(t.right);
+		return update(t);
+	}
+
+	private static Piece update(Piece t) {
+		t.subtreeChange = subtreeChange(t.left) + t.change() + subtreeChange(t.right);
+		return t;
+	}
+
+	private static int subtreeChange(Piece t) {
+		return (t == null) ? 0 : t.subtreeChange;
+	}
+}